@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs all driver benchmarks and writes the results as JSON, so runs can be
+ * compared between versions.
+ *
+ * Usage: java -jar benchmarks.jar [result file] [benchmark regex]
+ */
+public class BenchmarkRunner {
+
+    private static final String DEFAULT_RESULT = "target/jmh-result.json";
+
+    public static void main(String[] args) throws RunnerException {
+        String result = args.length > 0 ? args[0] : DEFAULT_RESULT;
+        String include = args.length > 1 ? args[1] : BenchmarkRunner.class.getPackage().getName() + ".*Benchmark";
+        Options options = new OptionsBuilder()
+                .include(include)
+                .resultFormat(ResultFormatType.JSON)
+                .result(result)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,340 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.jevis.sqldatasource.stub.H2Driver;
+import org.jevis.sqldatasource.stub.SyntheticSource;
+
+/**
+ * End to end load test of SQLDriverAbstract.run(). Generates synthetic tables
+ * in an H2 database, builds the matching SQL Server tree with channels, data
+ * points and variables and runs the driver against it. The Last Readout of
+ * the synthetic channels is read-only, so every run reads all rows.
+ *
+ * After the warmup runs the measured runs report throughput, peak heap,
+ * allocation rate and the latency of every phase, taken from the channel
+ * metrics. The test fails with exit code 1 if a result is past one of the
+ * thresholds.
+ *
+ * Usage: java -cp benchmarks.jar org.jevis.sqldatasource.LoadTest [key=value
+ * ...]
+ * <ul>
+ * <li>channels, tables, rows, values, interval: size of the source, channels
+ * are spread over the tables</li>
+ * <li>runs, warmup: measured and warmup runs</li>
+ * <li>parallel, pool, batch, queue: Parallel Channels, Connection Pool Size,
+ * Import Batch Size and Pipeline Queue Size of the server</li>
+ * <li>url: JDBC url, a file database for large backlogs</li>
+ * <li>min.throughput: samples per second</li>
+ * <li>max.heap: peak heap in MB</li>
+ * <li>max.alloc: allocation rate in MB per second</li>
+ * <li>max.p99, max.p99.&lt;phase&gt;: p99 run or phase latency of the
+ * slowest channel in ms, phases are prepare, execute, fetch, parse, import
+ * and commit</li>
+ * </ul>
+ */
+public class LoadTest {
+
+    private static final String[] PHASES = {"Run", "Prepare", "Execute", "Fetch", "Parse", "Import", "Commit"};
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("channels", "100");
+        DEFAULTS.put("tables", "0");
+        DEFAULTS.put("rows", "10000");
+        DEFAULTS.put("values", "4");
+        DEFAULTS.put("interval", "60");
+        DEFAULTS.put("runs", "3");
+        DEFAULTS.put("warmup", "1");
+        DEFAULTS.put("parallel", "4");
+        DEFAULTS.put("pool", "0");
+        DEFAULTS.put("batch", "5000");
+        DEFAULTS.put("queue", "0");
+        DEFAULTS.put("url", "jdbc:h2:mem:loadtest;DB_CLOSE_DELAY=-1;TRACE_LEVEL_SYSTEM_OUT=0");
+    }
+
+    private final Map<String, String> _options;
+    private final List<String> _failures = new ArrayList<>();
+
+    LoadTest(Map<String, String> options) {
+        _options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>(DEFAULTS);
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if (split <= 0) {
+                throw new IllegalArgumentException("Expected key=value: " + arg);
+            }
+            options.put(arg.substring(0, split).trim(), arg.substring(split + 1).trim());
+        }
+        List<String> failures = new LoadTest(options).run();
+        if (!failures.isEmpty()) {
+            for (String failure : failures) {
+                System.out.println("FAILED: " + failure);
+            }
+            System.exit(1);
+        }
+        System.out.println("PASSED");
+    }
+
+    List<String> run() throws Exception {
+        int channels = getInt("channels");
+        int tables = getInt("tables") > 0 ? getInt("tables") : channels;
+        int rows = getInt("rows");
+        int values = getInt("values");
+        String url = _options.get("url");
+        System.out.println("Options: " + _options);
+
+        H2Driver driver = new H2Driver(url);
+        long setup = System.nanoTime();
+        try (Connection con = driver.connect()) {
+            for (int i = 0; i < tables; i++) {
+                SyntheticSource.createTable(con, "load" + i, values, rows, getInt("interval"));
+            }
+        }
+        SyntheticSource source = new SyntheticSource();
+        for (int i = 0; i < channels; i++) {
+            source.addChannel("load" + (i % tables), values, "timestamp");
+        }
+        source.getServerStub()
+                .set(SQLDriverAbstract.SQLServer.PARALLEL_CHANNELS, getLong("parallel"))
+                .set(SQLDriverAbstract.SQLServer.CONNECTION_POOL_SIZE, getLong("pool"))
+                .set(SQLDriverAbstract.SQLServer.IMPORT_BATCH_SIZE, getLong("batch"))
+                .set(SQLDriverAbstract.SQLServer.PIPELINE_QUEUE_SIZE, getLong("queue"));
+        System.out.printf("Setup: %s tables with %s rows in %.0f ms%n", tables, rows,
+                (System.nanoTime() - setup) / 1000000d);
+
+        for (int i = 0; i < getInt("warmup"); i++) {
+            runDriver(url, source);
+        }
+        resetMetrics(source.getServerStub().getID());
+        resetPeakHeap();
+        AllocationSampler allocations = new AllocationSampler();
+        allocations.start();
+        long samples = 0;
+        long start = System.nanoTime();
+        int runs = getInt("runs");
+        for (int i = 0; i < runs; i++) {
+            samples += runDriver(url, source);
+        }
+        double seconds = (System.nanoTime() - start) / 1000000000d;
+        long allocated = allocations.finish();
+
+        long expected = (long) channels * rows * values * runs;
+        double throughput = samples / seconds;
+        double heap = getPeakHeap() / 1048576d;
+        double allocRate = allocated / 1048576d / seconds;
+        System.out.printf("Imported: %s samples in %.2f s (expected %s)%n", samples, seconds, expected);
+        System.out.printf("Throughput: %.0f samples/s%n", throughput);
+        System.out.printf("Peak heap: %.1f MB%n", heap);
+        System.out.printf("Allocation: %.1f MB/s (%.0f bytes per sample)%n", allocRate,
+                samples > 0 ? allocated / (double) samples : 0);
+        if (samples != expected) {
+            _failures.add(String.format("imported %s samples, expected %s", samples, expected));
+        }
+        checkMin("min.throughput", throughput, "throughput");
+        checkMax("max.heap", heap, "peak heap");
+        checkMax("max.alloc", allocRate, "allocation rate");
+        reportPhases(source.getServerStub().getID());
+        return _failures;
+    }
+
+    private long runDriver(String url, SyntheticSource source) {
+        H2Driver driver = new H2Driver(url);
+        driver.initialize(source.getServer());
+        driver.run();
+        return driver.getImported();
+    }
+
+    /**
+     * Prints the latency of every phase over all channels: the mean weighted
+     * by the number of measurements and the p99 and maximum of the slowest
+     * channel.
+     */
+    private void reportPhases(long serverID) throws Exception {
+        List<ChannelMetricsMXBean> channels = getChannelMetrics(serverID);
+        System.out.printf("%-8s %10s %10s %10s %10s%n", "Phase", "count", "mean ms", "p99 ms", "max ms");
+        for (String phase : PHASES) {
+            long count = 0;
+            double sum = 0;
+            double p99 = 0;
+            double max = 0;
+            for (ChannelMetricsMXBean channel : channels) {
+                LatencySummary latency = (LatencySummary) ChannelMetricsMXBean.class
+                        .getMethod("get" + phase + "Latency").invoke(channel);
+                count += latency.getCount();
+                sum += latency.getMean() * latency.getCount();
+                p99 = Math.max(p99, latency.getP99());
+                max = Math.max(max, latency.getMax());
+            }
+            System.out.printf("%-8s %10s %10.3f %10.3f %10.3f%n", phase, count, count > 0 ? sum / count : 0, p99, max);
+            String key = phase.equals("Run") ? "max.p99" : "max.p99." + phase.toLowerCase();
+            checkMax(key, p99, phase.toLowerCase() + " p99");
+        }
+    }
+
+    private static List<ChannelMetricsMXBean> getChannelMetrics(long serverID) throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Set<ObjectName> names = server.queryNames(new ObjectName(
+                String.format("%s:type=SQLChannel,server=%s,*", DriverMetrics.DOMAIN, serverID)), null);
+        List<ChannelMetricsMXBean> channels = new ArrayList<>();
+        for (ObjectName name : names) {
+            channels.add(JMX.newMXBeanProxy(server, name, ChannelMetricsMXBean.class));
+        }
+        return channels;
+    }
+
+    private static void resetMetrics(long serverID) throws Exception {
+        for (ChannelMetricsMXBean channel : getChannelMetrics(serverID)) {
+            channel.reset();
+        }
+    }
+
+    private static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * @return sum of the peak usage of the heap pools in bytes
+     */
+    private static long getPeakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private void checkMin(String key, double value, String name) {
+        String limit = _options.get(key);
+        if (limit != null && value < Double.parseDouble(limit)) {
+            _failures.add(String.format("%s %.3f is below %s", name, value, limit));
+        }
+    }
+
+    private void checkMax(String key, double value, String name) {
+        String limit = _options.get(key);
+        if (limit != null && value > Double.parseDouble(limit)) {
+            _failures.add(String.format("%s %.3f is above %s", name, value, limit));
+        }
+    }
+
+    private int getInt(String key) {
+        return Integer.parseInt(_options.get(key));
+    }
+
+    private long getLong(String key) {
+        return Long.parseLong(_options.get(key));
+    }
+
+    /**
+     * Sums the bytes allocated by all threads while the measured runs are
+     * running. The counters of the threads are polled, so the allocation of
+     * a thread which ends between two polls is partly missed and the result
+     * is a lower bound.
+     */
+    private static final class AllocationSampler extends Thread {
+
+        private static final long POLL_INTERVAL = 20;
+
+        private final com.sun.management.ThreadMXBean _threads;
+        private final Map<Long, Long> _start = new HashMap<>();
+        private final Map<Long, Long> _last = new HashMap<>();
+        private volatile boolean _running = true;
+
+        AllocationSampler() {
+            super("LoadTest-allocation");
+            setDaemon(true);
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            _threads = threads instanceof com.sun.management.ThreadMXBean
+                    ? (com.sun.management.ThreadMXBean) threads : null;
+            if (_threads != null) {
+                for (long id : _threads.getAllThreadIds()) {
+                    _start.put(id, Math.max(0, _threads.getThreadAllocatedBytes(id)));
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            while (_running && _threads != null) {
+                poll();
+                try {
+                    Thread.sleep(POLL_INTERVAL);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        }
+
+        private synchronized void poll() {
+            long[] ids = _threads.getAllThreadIds();
+            long[] bytes = _threads.getThreadAllocatedBytes(ids);
+            for (int i = 0; i < ids.length; i++) {
+                if (bytes[i] >= 0) {
+                    _last.put(ids[i], bytes[i]);
+                }
+            }
+        }
+
+        /**
+         * @return bytes allocated since the sampler was created, 0 if the
+         * JVM does not count allocations
+         */
+        long finish() throws InterruptedException {
+            if (_threads == null) {
+                return 0;
+            }
+            _running = false;
+            join();
+            poll();
+            long allocated = 0;
+            for (Map.Entry<Long, Long> thread : _last.entrySet()) {
+                Long start = _start.get(thread.getKey());
+                allocated += thread.getValue() - (start != null ? start : 0);
+            }
+            return allocated;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.jevis.commons.driver.Result;
+import org.jevis.sqldatasource.stub.H2Driver;
+import org.jevis.sqldatasource.stub.StubJEVis;
+import org.jevis.sqldatasource.stub.StubJEVis.StubObject;
+import org.jevis.sqldatasource.stub.SyntheticSource;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.ISODateTimeFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Decodes a result set of ROWS rows with the RowDecoder and with the old
+ * per-row parser, which looked up columns by name and created a formatter
+ * for every pattern timestamp.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class RowDecoderBenchmark {
+
+    private static final int ROWS = 10000;
+    private static final String TABLE = "decoder";
+
+    @Param({"double", "float", "long", "int", "string"})
+    public String valueType;
+
+    @Param({"timestamp", "date", "yyyy-MM-dd HH:mm:ss", "iso", "epoch", "epoch millis"})
+    public String timestampType;
+
+    private Connection _con;
+    private PreparedStatement _ps;
+    private List<Target> _targets;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        _con = new H2Driver("jdbc:h2:mem:decoder;DB_CLOSE_DELAY=-1").connect();
+        try (Statement st = _con.createStatement()) {
+            st.execute("DROP TABLE IF EXISTS " + TABLE);
+            st.execute("CREATE TABLE " + TABLE + " (ts TIMESTAMP, ts_date DATE, ts_text VARCHAR(19), ts_iso VARCHAR(32), "
+                    + "ts_seconds BIGINT, ts_millis BIGINT, v_double DOUBLE, v_float REAL, v_long BIGINT, v_int INT, "
+                    + "v_string VARCHAR(32))");
+        }
+        try (PreparedStatement insert = _con.prepareStatement("INSERT INTO " + TABLE
+                + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            for (int row = 0; row < ROWS; row++) {
+                DateTime ts = SyntheticSource.START.plusMinutes(row);
+                insert.setTimestamp(1, new Timestamp(ts.getMillis()));
+                insert.setDate(2, new Date(ts.withTimeAtStartOfDay().getMillis()));
+                insert.setString(3, ts.toString("yyyy-MM-dd HH:mm:ss"));
+                insert.setString(4, ts.toString());
+                insert.setLong(5, ts.getMillis() / 1000);
+                insert.setLong(6, ts.getMillis());
+                insert.setDouble(7, row * 0.25);
+                insert.setFloat(8, row * 0.25f);
+                insert.setLong(9, row);
+                insert.setInt(10, row);
+                insert.setString(11, "value " + row);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+        _ps = _con.prepareStatement("SELECT * FROM " + TABLE,
+                ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+
+        String timestampColumn;
+        switch (timestampType) {
+            case "timestamp":
+                timestampColumn = "ts";
+                break;
+            case "date":
+                timestampColumn = "ts_date";
+                break;
+            case "iso":
+                timestampColumn = "ts_iso";
+                break;
+            case "epoch":
+                timestampColumn = "ts_seconds";
+                break;
+            case "epoch millis":
+                timestampColumn = "ts_millis";
+                break;
+            default:
+                timestampColumn = "ts_text";
+        }
+        StubJEVis jevis = new StubJEVis();
+        StubObject target = jevis.createObject("Data", "Target", null);
+        _targets = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            StubObject dp = jevis.createObject(SQLDriverAbstract.SQLDataPoint.NAME, "dp" + i, null)
+                    .set(SQLDriverAbstract.SQLDataPoint.TARGET, target.getID())
+                    .set(SQLDriverAbstract.SQLDataPoint.TARGETATTRIBUTE, "Value")
+                    .set(SQLDriverAbstract.SQLDataPoint.TIMESTAMPCOLUMN, timestampColumn)
+                    .set(SQLDriverAbstract.SQLDataPoint.TIMESTAMPTYPE, timestampType)
+                    .set(SQLDriverAbstract.SQLDataPoint.VALUECOLUMN, "v_" + valueType)
+                    .set(SQLDriverAbstract.SQLDataPoint.VALUETYPE, valueType);
+            _targets.add(new Target(dp.getObject().getJEVisClass(), dp.getObject()));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        _ps.close();
+        _con.close();
+    }
+
+    @Benchmark
+    public void rowDecoder(final Blackhole bh) throws SQLException {
+        ResultBuffer buffer = new ResultBuffer(new ResultBuffer.Sink() {
+            @Override
+            public void importResults(List<Result> results) {
+                bh.consume(results);
+            }
+        }, 1000);
+        try (ResultSet rs = _ps.executeQuery()) {
+            RowDecoder decoder = new RowDecoder(_targets, DateTimeZone.UTC);
+            decoder.bind(rs.getMetaData());
+            while (rs.next()) {
+                decoder.decode(rs, buffer);
+            }
+        }
+        buffer.flush();
+    }
+
+    @Benchmark
+    public void legacyParser(Blackhole bh) throws Exception {
+        List<Result> results = new ArrayList<>();
+        try (ResultSet rs = _ps.executeQuery()) {
+            while (rs.next()) {
+                for (Target target : _targets) {
+                    results.add(parseResult(rs, target));
+                }
+                if (results.size() >= 1000) {
+                    bh.consume(results);
+                    results = new ArrayList<>();
+                }
+            }
+        }
+        bh.consume(results);
+    }
+
+    /**
+     * The parser used before the RowDecoder. 'epoch', 'epoch millis' and 'iso'
+     * did not exist, they are read the way the old parser would have read a
+     * long column and an ISO string. It only knew double, long and string
+     * values, float and int are read with their own getter.
+     */
+    private static Result parseResult(ResultSet rs, Target target) throws Exception {
+        DateTime dateTime;
+        if (target.getTimestampType().equalsIgnoreCase("date")) {
+            dateTime = new DateTime(rs.getDate(target.getTimestampColumn()).getTime());
+        } else if (target.getTimestampType().equalsIgnoreCase("timestamp")) {
+            dateTime = new DateTime(rs.getTimestamp(target.getTimestampColumn()).getTime());
+        } else if (target.getTimestampType().equalsIgnoreCase("epoch millis")) {
+            dateTime = new DateTime(rs.getLong(target.getTimestampColumn()));
+        } else if (target.getTimestampType().equalsIgnoreCase("epoch")) {
+            dateTime = new DateTime(rs.getLong(target.getTimestampColumn()) * 1000);
+        } else if (target.getTimestampType().equalsIgnoreCase("iso")) {
+            dateTime = ISODateTimeFormat.dateTimeParser().parseDateTime(rs.getString(target.getTimestampColumn()));
+        } else {
+            dateTime = DateTimeFormat.forPattern(target.getTimestampType()).parseDateTime(rs.getString(target.getTimestampColumn()));
+        }
+
+        if (target.getValueType().equalsIgnoreCase("double")) {
+            Double value = rs.getDouble(target.getValueColumn());
+            return new Result(target.getObjectID(), target.getAttributeName(), value, dateTime);
+        } else if (target.getValueType().equalsIgnoreCase("float")) {
+            Float value = rs.getFloat(target.getValueColumn());
+            return new Result(target.getObjectID(), target.getAttributeName(), value, dateTime);
+        } else if (target.getValueType().equalsIgnoreCase("long")) {
+            Long value = rs.getLong(target.getValueColumn());
+            return new Result(target.getObjectID(), target.getAttributeName(), value, dateTime);
+        } else if (target.getValueType().equalsIgnoreCase("int")) {
+            Integer value = rs.getInt(target.getValueColumn());
+            return new Result(target.getObjectID(), target.getAttributeName(), value, dateTime);
+        } else {
+            String value = rs.getString(target.getValueColumn());
+            return new Result(target.getObjectID(), target.getAttributeName(), value, dateTime);
+        }
+    }
+}
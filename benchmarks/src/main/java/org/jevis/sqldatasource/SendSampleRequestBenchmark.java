@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource;
+
+import java.sql.Connection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.jevis.api.JEVisObject;
+import org.jevis.sqldatasource.stub.H2Driver;
+import org.jevis.sqldatasource.stub.SyntheticSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reads a whole channel with sendSampleRequest: configuration, query,
+ * variable binding and decoding of all rows.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SendSampleRequestBenchmark {
+
+    @Param({"1000", "10000"})
+    public int rows;
+
+    @Param({"1", "8"})
+    public int values;
+
+    private H2Driver _driver;
+    private Connection _con;
+    private JEVisObject _channel;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        _driver = new H2Driver("jdbc:h2:mem:request;DB_CLOSE_DELAY=-1");
+        _con = _driver.connect();
+        SyntheticSource.createTable(_con, "channel", values, rows, 60);
+        SyntheticSource source = new SyntheticSource();
+        _channel = source.addChannel("channel", values, "timestamp").getObject();
+        _driver.initialize(source.getServer());
+        _driver._con = _con;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        _con.close();
+    }
+
+    @Benchmark
+    public List<?> sendSampleRequest() {
+        return _driver.sendSampleRequest(_channel);
+    }
+}
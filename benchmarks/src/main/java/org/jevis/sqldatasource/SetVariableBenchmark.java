@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import org.jevis.sqldatasource.stub.H2Driver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Binds one query variable with setVariableInStatement.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SetVariableBenchmark {
+
+    @Param({"timestamp", "string", "long", "double"})
+    public String variableType;
+
+    private SQLDriverAbstract _driver;
+    private Connection _con;
+    private PreparedStatement _ps;
+    private String _value;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        H2Driver driver = new H2Driver("jdbc:h2:mem:variable;DB_CLOSE_DELAY=-1");
+        _driver = driver;
+        _con = driver.connect();
+        _ps = _con.prepareStatement("SELECT ?");
+        switch (variableType) {
+            case "timestamp":
+                _value = "2016-08-02 12:30:00";
+                break;
+            case "string":
+                _value = "meter 4711";
+                break;
+            case "long":
+                _value = "4711";
+                break;
+            default:
+                _value = "47.11";
+                break;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        _ps.close();
+        _con.close();
+    }
+
+    @Benchmark
+    public PreparedStatement setVariable() throws Exception {
+        _driver.setVariableInStatement(_ps, variableType, 1, _value, null);
+        return _ps;
+    }
+}
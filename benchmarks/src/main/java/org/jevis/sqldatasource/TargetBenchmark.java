@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource;
+
+import java.util.concurrent.TimeUnit;
+import org.jevis.api.JEVisObject;
+import org.jevis.sqldatasource.stub.StubJEVis;
+import org.jevis.sqldatasource.stub.StubJEVis.StubObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reads the target configuration of one data point, with and without
+ * resolving the target attribute.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class TargetBenchmark {
+
+    private JEVisObject _dataPoint;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        StubJEVis jevis = new StubJEVis();
+        StubObject target = jevis.createObject("Data", "Target", null);
+        _dataPoint = jevis.createObject(SQLDriverAbstract.SQLDataPoint.NAME, "dp", null)
+                .set(SQLDriverAbstract.SQLDataPoint.TARGET, target.getID())
+                .set(SQLDriverAbstract.SQLDataPoint.TARGETATTRIBUTE, "Value")
+                .set(SQLDriverAbstract.SQLDataPoint.TIMESTAMPCOLUMN, "ts")
+                .set(SQLDriverAbstract.SQLDataPoint.TIMESTAMPTYPE, "timestamp")
+                .set(SQLDriverAbstract.SQLDataPoint.VALUECOLUMN, "v0")
+                .set(SQLDriverAbstract.SQLDataPoint.VALUETYPE, "double")
+                .getObject();
+    }
+
+    @Benchmark
+    public Target newTarget() throws Exception {
+        return new Target(_dataPoint);
+    }
+
+    @Benchmark
+    public Target readConfiguration() throws Exception {
+        return new Target(_dataPoint.getJEVisClass(), _dataPoint);
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource.stub;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jevis.api.JEVisObject;
+import org.jevis.commons.driver.Importer;
+import org.jevis.sqldatasource.SQLDriverAbstract;
+
+/**
+ * Driver against an H2 in-memory database, the samples are counted by a stub
+ * importer instead of being written to JEVis.
+ */
+public class H2Driver extends SQLDriverAbstract {
+
+    /**
+     * Keeps the driver logger quiet, the INFO messages of the configuration
+     * loading would otherwise be part of the measurement.
+     */
+    private static final Logger LOGGER = Logger.getLogger(SQLDriverAbstract.class.getName());
+
+    static {
+        LOGGER.setLevel(Level.WARNING);
+    }
+
+    private final String _url;
+    private final AtomicLong _imported = new AtomicLong();
+
+    public H2Driver(String url) {
+        _url = url;
+    }
+
+    @Override
+    protected String loadJDBC(String host, int port, String schema, String dbUser, String dbPW, String domain)
+            throws ClassNotFoundException, SQLException {
+        Class.forName("org.h2.Driver");
+        _con = DriverManager.getConnection(_url, "sa", "");
+        return _url;
+    }
+
+    @Override
+    protected String getClassName() {
+        return "SQL Server";
+    }
+
+    @Override
+    protected Importer createImporter(JEVisObject dataSource) {
+        return StubJEVis.countingImporter(_imported);
+    }
+
+    /**
+     * Opens a connection outside of the pool, used by benchmarks which call
+     * single driver methods.
+     *
+     * @return the connection
+     * @throws ClassNotFoundException
+     * @throws SQLException
+     */
+    public Connection connect() throws ClassNotFoundException, SQLException {
+        loadJDBC(null, 0, null, null, null, null);
+        Connection con = _con;
+        _con = null;
+        return con;
+    }
+
+    public long getImported() {
+        return _imported.get();
+    }
+}
@@ -0,0 +1,394 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource.stub;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jevis.api.JEVisAttribute;
+import org.jevis.api.JEVisClass;
+import org.jevis.api.JEVisDataSource;
+import org.jevis.api.JEVisObject;
+import org.jevis.api.JEVisSample;
+import org.jevis.api.JEVisType;
+import org.jevis.commons.driver.Importer;
+import org.jevis.commons.driver.Result;
+import org.joda.time.DateTime;
+
+/**
+ * In-memory JEVis object model for benchmarks and load tests. The API
+ * interfaces are implemented with dynamic proxies which answer the calls the
+ * driver and DatabaseHelper make, everything else returns null or a default.
+ */
+public final class StubJEVis {
+
+    private final Map<Long, StubObject> _objects = new HashMap<>();
+    private final Map<String, JEVisClass> _classes = new HashMap<>();
+    private final JEVisDataSource _dataSource;
+    private long _nextID = 1;
+
+    public StubJEVis() {
+        _dataSource = proxy(JEVisDataSource.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "getObject":
+                        StubObject object = _objects.get(((Number) args[0]).longValue());
+                        return object != null ? object.getObject() : null;
+                    case "getJEVisClass":
+                        return getJEVisClass((String) args[0]);
+                    default:
+                        return defaultValue(proxy, method, args);
+                }
+            }
+        });
+    }
+
+    public JEVisDataSource getDataSource() {
+        return _dataSource;
+    }
+
+    /**
+     * Creates an object below the parent.
+     *
+     * @param className JEVis class of the object
+     * @param name name of the object
+     * @param parent parent object, null for a root object
+     * @return the new object
+     */
+    public StubObject createObject(String className, String name, StubObject parent) {
+        StubObject object = new StubObject(_nextID++, className, name);
+        _objects.put(object.getID(), object);
+        if (parent != null) {
+            parent._children.add(object);
+        }
+        return object;
+    }
+
+    public JEVisClass getJEVisClass(final String name) {
+        JEVisClass jclass = _classes.get(name);
+        if (jclass == null) {
+            final Map<String, JEVisType> types = new HashMap<>();
+            jclass = proxy(JEVisClass.class, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    switch (method.getName()) {
+                        case "getName":
+                            return name;
+                        case "getType":
+                            JEVisType type = types.get((String) args[0]);
+                            if (type == null) {
+                                type = createType((String) args[0]);
+                                types.put((String) args[0], type);
+                            }
+                            return type;
+                        default:
+                            return defaultValue(proxy, method, args);
+                    }
+                }
+            });
+            _classes.put(name, jclass);
+        }
+        return jclass;
+    }
+
+    private JEVisType createType(final String name) {
+        return proxy(JEVisType.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("getName")) {
+                    return name;
+                }
+                return defaultValue(proxy, method, args);
+            }
+        });
+    }
+
+    /**
+     * Creates an importer which only counts the imported samples.
+     *
+     * @param counter receives the number of imported samples
+     * @return the importer
+     */
+    public static Importer countingImporter(final AtomicLong counter) {
+        return proxy(Importer.class, new InvocationHandler() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("importResult")) {
+                    counter.addAndGet(((List<Result>) args[0]).size());
+                    return null;
+                }
+                return defaultValue(proxy, method, args);
+            }
+        });
+    }
+
+    /**
+     * Creates an importer which keeps the imported samples.
+     *
+     * @param results receives the imported samples
+     * @return the importer
+     */
+    public static Importer collectingImporter(final List<Result> results) {
+        return proxy(Importer.class, new InvocationHandler() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("importResult")) {
+                    synchronized (results) {
+                        results.addAll((List<Result>) args[0]);
+                    }
+                    return null;
+                }
+                return defaultValue(proxy, method, args);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(StubJEVis.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    static Object defaultValue(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "Stub" + method.getDeclaringClass().getSimpleName();
+            default:
+                break;
+        }
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class || type == long.class || type == short.class || type == byte.class) {
+            return type == long.class ? (Object) 0l : (Object) 0;
+        } else if (type == double.class || type == float.class) {
+            return type == double.class ? (Object) 0d : (Object) 0f;
+        } else if (List.class.isAssignableFrom(type)) {
+            return new ArrayList<>();
+        }
+        return null;
+    }
+
+    private static String getName(Object nameOrType) throws Exception {
+        if (nameOrType instanceof JEVisType) {
+            return ((JEVisType) nameOrType).getName();
+        }
+        return (String) nameOrType;
+    }
+
+    /**
+     * Object of the stub model with its attributes and children.
+     */
+    public final class StubObject {
+
+        private final long _id;
+        private final String _className;
+        private final String _name;
+        private final List<StubObject> _children = new ArrayList<>();
+        private final Map<String, StubAttribute> _attributes = new LinkedHashMap<>();
+        private final JEVisObject _object;
+
+        private StubObject(long id, String className, String name) {
+            _id = id;
+            _className = className;
+            _name = name;
+            _object = proxy(JEVisObject.class, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    switch (method.getName()) {
+                        case "getID":
+                            return _id;
+                        case "getName":
+                            return _name;
+                        case "getJEVisClass":
+                            return StubJEVis.this.getJEVisClass(_className);
+                        case "getJEVisClassName":
+                            return _className;
+                        case "getDataSource":
+                            return _dataSource;
+                        case "getChildren":
+                            return getChildren(args != null && args.length > 0 ? (JEVisClass) args[0] : null);
+                        case "getAttribute":
+                            return getAttribute(StubJEVis.getName(args[0]));
+                        case "getAttributes":
+                            List<JEVisAttribute> attributes = new ArrayList<>();
+                            for (StubAttribute attribute : _attributes.values()) {
+                                attributes.add(attribute.getAttribute());
+                            }
+                            return attributes;
+                        default:
+                            return defaultValue(proxy, method, args);
+                    }
+                }
+            });
+        }
+
+        public long getID() {
+            return _id;
+        }
+
+        public JEVisObject getObject() {
+            return _object;
+        }
+
+        /**
+         * Sets the latest sample of an attribute.
+         *
+         * @param attribute attribute name
+         * @param value sample value
+         * @return this object
+         */
+        public StubObject set(String attribute, Object value) {
+            getStubAttribute(attribute).setValue(value);
+            return this;
+        }
+
+        /**
+         * Ignores commits of new samples, e.g. to keep the Last Readout of a
+         * benchmark channel constant.
+         *
+         * @param attribute attribute name
+         * @return this object
+         */
+        public StubObject readOnly(String attribute) {
+            getStubAttribute(attribute)._readOnly = true;
+            return this;
+        }
+
+        public Object get(String attribute) {
+            StubAttribute stub = _attributes.get(attribute);
+            return stub != null ? stub._value : null;
+        }
+
+        private StubAttribute getStubAttribute(String name) {
+            StubAttribute attribute = _attributes.get(name);
+            if (attribute == null) {
+                attribute = new StubAttribute(this, name);
+                _attributes.put(name, attribute);
+            }
+            return attribute;
+        }
+
+        private JEVisAttribute getAttribute(String name) {
+            return getStubAttribute(name).getAttribute();
+        }
+
+        private List<JEVisObject> getChildren(JEVisClass jclass) throws Exception {
+            List<JEVisObject> children = new ArrayList<>();
+            String className = jclass != null ? jclass.getName() : null;
+            for (StubObject child : _children) {
+                if (className == null || className.equals(child._className)) {
+                    children.add(child._object);
+                }
+            }
+            return children;
+        }
+    }
+
+    private final class StubAttribute {
+
+        private final StubObject _owner;
+        private final String _name;
+        private final JEVisAttribute _attribute;
+        private Object _value;
+        private DateTime _timestamp;
+        private boolean _readOnly = false;
+
+        StubAttribute(StubObject owner, String name) {
+            _owner = owner;
+            _name = name;
+            _attribute = proxy(JEVisAttribute.class, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    switch (method.getName()) {
+                        case "getName":
+                            return _name;
+                        case "getObject":
+                            return _owner.getObject();
+                        case "hasSample":
+                            return _value != null;
+                        case "getLatestSample":
+                            return _value != null ? createSample(_timestamp, _value, false) : null;
+                        case "getTimestampFromLastSample":
+                            return _timestamp;
+                        case "buildSample":
+                            return createSample((DateTime) args[0], args[1], true);
+                        default:
+                            return defaultValue(proxy, method, args);
+                    }
+                }
+            });
+        }
+
+        JEVisAttribute getAttribute() {
+            return _attribute;
+        }
+
+        void setValue(Object value) {
+            _value = value;
+            _timestamp = new DateTime();
+        }
+
+        private JEVisSample createSample(final DateTime timestamp, final Object value, final boolean uncommitted) {
+            return proxy(JEVisSample.class, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    switch (method.getName()) {
+                        case "getValue":
+                            return value;
+                        case "getValueAsString":
+                            return value != null ? value.toString() : null;
+                        case "getValueAsLong":
+                            return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString());
+                        case "getValueAsDouble":
+                            return value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value.toString());
+                        case "getValueAsBoolean":
+                            return value instanceof Boolean ? value : Boolean.parseBoolean(value.toString());
+                        case "getTimestamp":
+                            return timestamp;
+                        case "getAttribute":
+                            return _attribute;
+                        case "commit":
+                            if (uncommitted && !_readOnly) {
+                                _value = value;
+                                _timestamp = timestamp;
+                            }
+                            return null;
+                        default:
+                            return defaultValue(proxy, method, args);
+                    }
+                }
+            });
+        }
+    }
+}
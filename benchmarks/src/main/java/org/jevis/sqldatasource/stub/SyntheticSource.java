@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource.stub;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import org.jevis.api.JEVisObject;
+import org.jevis.sqldatasource.stub.StubJEVis.StubObject;
+import org.joda.time.DateTime;
+
+/**
+ * Builds synthetic H2 tables and the matching SQL Server object tree. Every
+ * channel reads one table with a timestamp column and a number of value
+ * columns, every value column is mapped by one data point.
+ */
+public final class SyntheticSource {
+
+    public static final DateTime START = new DateTime(2016, 1, 1, 0, 0, 0);
+
+    private final StubJEVis _jevis = new StubJEVis();
+    private final StubObject _server;
+    private final StubObject _channelDir;
+    private final StubObject _targetDir;
+
+    public SyntheticSource() {
+        _server = _jevis.createObject("SQL Server", "Benchmark Server", null);
+        _server.set("Host", "localhost")
+                .set("Port", 0l)
+                .set("Schema", "bench")
+                .set("User", "sa")
+                .set("Password", "")
+                .set("Connection Timeout", 10l)
+                .set("Read Timeout", 60l)
+                .set("Timezone", "UTC")
+                .set("Enabled", true);
+        _channelDir = _jevis.createObject("SQL Channel Directory", "Channels", _server);
+        _targetDir = _jevis.createObject("Data Directory", "Targets", null);
+    }
+
+    public StubJEVis getJEVis() {
+        return _jevis;
+    }
+
+    public JEVisObject getServer() {
+        return _server.getObject();
+    }
+
+    public StubObject getServerStub() {
+        return _server;
+    }
+
+    /**
+     * Creates the table of a channel and fills it with one row per interval.
+     *
+     * @param con connection to the H2 database
+     * @param table table name
+     * @param values number of value columns
+     * @param rows number of rows
+     * @param intervalSeconds seconds between two rows
+     * @throws SQLException
+     */
+    public static void createTable(Connection con, String table, int values, int rows, int intervalSeconds)
+            throws SQLException {
+        StringBuilder ddl = new StringBuilder("CREATE TABLE ").append(table)
+                .append(" (id BIGINT PRIMARY KEY, ts TIMESTAMP NOT NULL");
+        StringBuilder insert = new StringBuilder("INSERT INTO ").append(table).append(" VALUES (?, ?");
+        for (int i = 0; i < values; i++) {
+            ddl.append(", v").append(i).append(" DOUBLE");
+            insert.append(", ?");
+        }
+        try (Statement st = con.createStatement()) {
+            st.execute("DROP TABLE IF EXISTS " + table);
+            st.execute(ddl.append(')').toString());
+            st.execute("CREATE INDEX " + table + "_ts ON " + table + " (ts)");
+        }
+        boolean autoCommit = con.getAutoCommit();
+        con.setAutoCommit(false);
+        try (PreparedStatement ps = con.prepareStatement(insert.append(')').toString())) {
+            long start = START.getMillis();
+            for (int row = 0; row < rows; row++) {
+                ps.setLong(1, row);
+                ps.setTimestamp(2, new Timestamp(start + row * intervalSeconds * 1000l));
+                for (int i = 0; i < values; i++) {
+                    ps.setDouble(3 + i, row * 0.5 + i);
+                }
+                ps.addBatch();
+                if (row % 1000 == 999) {
+                    ps.executeBatch();
+                }
+            }
+            ps.executeBatch();
+            con.commit();
+        } finally {
+            con.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Adds a channel which reads all rows of the table after the Last
+     * Readout. The Last Readout is read-only, so repeated runs read the same
+     * rows.
+     *
+     * @param table table name
+     * @param values number of value columns, one data point per column
+     * @param timestampType timestamp type of the data points
+     * @return the channel
+     */
+    public StubObject addChannel(String table, int values, String timestampType) {
+        StubObject channel = _jevis.createObject("SQL Channel", table, _channelDir);
+        channel.set("Query", "SELECT * FROM " + table + " WHERE ts > ? ORDER BY ts")
+                .set("Last Readout", "")
+                .readOnly("Last Readout");
+
+        StubObject variableDir = _jevis.createObject("SQL Variable Directory", "Variables", channel);
+        _jevis.createObject("SQL Variable", "from", variableDir)
+                .set("Variable Type", "timestamp")
+                .set("Position", 1l)
+                .set("Condition", "lastreadout");
+
+        StubObject dataPointDir = _jevis.createObject("SQL Data Point Directory", "Data Points", channel);
+        for (int i = 0; i < values; i++) {
+            StubObject target = _jevis.createObject("Data", table + " v" + i, _targetDir);
+            _jevis.createObject("SQL Data Point", "v" + i, dataPointDir)
+                    .set("Target ID", target.getID())
+                    .set("Target Attribute", "Value")
+                    .set("Timestamp Column", "ts")
+                    .set("Timestamp Type", timestampType)
+                    .set("Value Column", "v" + i)
+                    .set("Value Type", "double");
+        }
+        return channel;
+    }
+}
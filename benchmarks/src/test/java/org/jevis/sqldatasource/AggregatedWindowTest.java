@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import org.jevis.api.JEVisObject;
+import org.jevis.commons.driver.Importer;
+import org.jevis.commons.driver.Result;
+import org.jevis.sqldatasource.stub.H2Driver;
+import org.jevis.sqldatasource.stub.StubJEVis;
+import org.jevis.sqldatasource.stub.StubJEVis.StubObject;
+import org.jevis.sqldatasource.stub.SyntheticSource;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+/**
+ * An aggregated channel which reads its backlog in read windows that are
+ * not aligned to its intervals has to import every interval once, with the
+ * values of all of its rows.
+ */
+public class AggregatedWindowTest {
+
+    private static final String URL = "jdbc:h2:mem:aggregated_window;DB_CLOSE_DELAY=-1";
+    private static final long MINUTE = 60000;
+    private static final int INTERVAL = 15;
+    private static final int ROWS = 540;
+
+    @Test
+    public void intervalSpanningTwoWindowsIsComplete() throws Exception {
+        long now = System.currentTimeMillis();
+        DateTime start = new DateTime(now - now % (INTERVAL * MINUTE) - 10 * 60 * MINUTE, DateTimeZone.UTC);
+        H2Driver setup = new H2Driver(URL);
+        Connection con = setup.connect();
+        try {
+            createTable(con, start);
+        } finally {
+            con.close();
+        }
+
+        SyntheticSource source = new SyntheticSource();
+        StubJEVis jevis = source.getJEVis();
+        StubObject channel = jevis.createObject("SQL Channel", "windows",
+                jevis.createObject("SQL Channel Directory", "Channels", source.getServerStub()));
+        // 127 minutes are no multiple of the interval, every window ends inside an interval
+        channel.set("Query", "SELECT * FROM windows WHERE ts > ? AND ts <= ? ORDER BY ts")
+                .set("Last Readout", start.toString("yyyy-MM-dd HH:mm:ss"))
+                .set("Read Window", 127l);
+        StubObject variables = jevis.createObject("SQL Variable Directory", "Variables", channel);
+        jevis.createObject("SQL Variable", "from", variables)
+                .set("Variable Type", "timestamp").set("Position", 1l).set("Condition", "lastreadout");
+        jevis.createObject("SQL Variable", "to", variables)
+                .set("Variable Type", "timestamp").set("Position", 2l).set("Condition", "windowend");
+        StubObject dataPoints = jevis.createObject("SQL Data Point Directory", "Data Points", channel);
+        StubObject targets = jevis.createObject("Data Directory", "Targets", null);
+        StubObject average = addDataPoint(jevis, dataPoints, targets, "v0", "avg");
+        StubObject sum = addDataPoint(jevis, dataPoints, targets, "v1", "sum");
+
+        final List<Result> results = new ArrayList<>();
+        H2Driver driver = new H2Driver(URL) {
+            @Override
+            protected Importer createImporter(JEVisObject dataSource) {
+                return StubJEVis.collectingImporter(results);
+            }
+        };
+        driver.initialize(source.getServer());
+        driver.run();
+
+        Map<Long, Double> averages = getValues(results, average.getID());
+        Map<Long, Double> sums = getValues(results, sum.getID());
+        assertEquals(ROWS / INTERVAL, averages.size());
+        assertEquals(ROWS / INTERVAL, sums.size());
+        for (int i = 1; i <= ROWS / INTERVAL; i++) {
+            long end = start.getMillis() + i * INTERVAL * MINUTE;
+            assertEquals(i * INTERVAL - (INTERVAL - 1) / 2.0, averages.get(end), 0.0001);
+            assertEquals(INTERVAL, sums.get(end), 0.0001);
+        }
+    }
+
+    /**
+     * One row per minute after the start, the first value column counts the
+     * rows and the second one is always 1.
+     */
+    private static void createTable(Connection con, DateTime start) throws Exception {
+        try (Statement st = con.createStatement()) {
+            st.execute("DROP TABLE IF EXISTS windows");
+            st.execute("CREATE TABLE windows (ts TIMESTAMP NOT NULL, v0 DOUBLE, v1 DOUBLE)");
+        }
+        Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        try (PreparedStatement ps = con.prepareStatement("INSERT INTO windows VALUES (?, ?, ?)")) {
+            for (int row = 1; row <= ROWS; row++) {
+                ps.setTimestamp(1, new Timestamp(start.getMillis() + row * MINUTE), utc);
+                ps.setDouble(2, row);
+                ps.setDouble(3, 1);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    private static StubObject addDataPoint(StubJEVis jevis, StubObject dataPoints, StubObject targets,
+            String column, String function) {
+        StubObject target = jevis.createObject("Data", column, targets);
+        jevis.createObject("SQL Data Point", column, dataPoints)
+                .set("Target ID", target.getID())
+                .set("Target Attribute", "Value")
+                .set("Timestamp Column", "ts")
+                .set("Timestamp Type", "timestamp")
+                .set("Value Column", column)
+                .set("Value Type", "double")
+                .set("Aggregation Interval", (long) INTERVAL)
+                .set("Aggregation Function", function);
+        return target;
+    }
+
+    /**
+     * @return the imported values of a target by timestamp, an interval
+     * which was imported twice keeps its last value
+     */
+    private static Map<Long, Double> getValues(List<Result> results, long target) {
+        Map<Long, Double> values = new TreeMap<>();
+        for (Result result : results) {
+            if (result.getOnlineID() == target) {
+                values.put(result.getDate().getMillis(), ((Number) result.getValue()).doubleValue());
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,271 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Wraps the query of a channel into a query which aggregates the values of
+ * its data points in the database, so only one row per interval is
+ * transferred.
+ *
+ * An interval contains its end but not its start and its values are
+ * stamped with the end. The Last Readout is the end of the newest interval
+ * and the next run reads the rows after it, so every interval is aggregated
+ * from all of its rows. The driver drops the interval which is not over yet
+ * and, for queries which read the rows from the Last Readout on with '&gt;=',
+ * the interval which ends at the Last Readout, as it only contains the
+ * boundary row and would overwrite the complete interval.
+ *
+ * avg, sum, min and max are computed with GROUP BY, if a data point uses
+ * last the query uses window functions and keeps the newest row of every
+ * interval. The variables of the channel query keep their positions.
+ */
+final class AggregateQuery {
+
+    static final String TIMESTAMP_ALIAS = "jevis_ts";
+    static final List<String> FUNCTIONS = Arrays.asList("avg", "sum", "min", "max", "last");
+    private static final String AVG = "avg";
+    private static final String LAST = "last";
+    private static final Pattern ORDER_BY = Pattern.compile("\\border\\s+by\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern LIMIT = Pattern.compile("\\b(limit|offset|fetch)\\b", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Database specific part of the query.
+     */
+    interface Dialect {
+
+        /**
+         * @param column timestamp column of type date or timestamp
+         * @param minutes length of the interval
+         * @return expression for the end of the interval which contains the
+         * timestamp, null if the database does not support it
+         */
+        String getIntervalEnd(String column, int minutes);
+    }
+
+    private final String _query;
+    private final List<Target> _targets;
+
+    private AggregateQuery(String query, List<Target> targets) {
+        _query = query;
+        _targets = targets;
+    }
+
+    /**
+     * @param targets targets of a channel
+     * @return true if one of the targets has an aggregation interval
+     */
+    static boolean isAggregated(List<Target> targets) {
+        for (Target target : targets) {
+            if (target.getAggregationInterval() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Builds the aggregated query of a channel.
+     *
+     * @param config configuration of the channel
+     * @param dialect database specific expressions
+     * @return the query and the targets which read its columns
+     * @throws IllegalArgumentException if the channel can not be aggregated
+     * by the database, the message tells why
+     */
+    static AggregateQuery build(ChannelConfig config, Dialect dialect) {
+        List<Target> targets = config.getTargets();
+        if (targets.isEmpty()) {
+            throw new IllegalArgumentException("no data point");
+        }
+        if (config.usesKeyset()) {
+            throw new IllegalArgumentException("the ID column can not be aggregated");
+        }
+        Target first = targets.get(0);
+        int minutes = first.getAggregationInterval();
+        String timestampColumn = first.getTimestampColumn();
+        String timestampType = first.getTimestampType();
+        boolean last = false;
+        for (Target target : targets) {
+            if (target.getAggregationInterval() <= 0) {
+                throw new IllegalArgumentException("data point of " + target.getObjectID() + " has no interval");
+            }
+            if (target.getAggregationInterval() != minutes
+                    || !same(target.getTimestampColumn(), timestampColumn)
+                    || !same(target.getTimestampType(), timestampType)) {
+                throw new IllegalArgumentException("the data points differ in interval or timestamp column");
+            }
+            if (!FUNCTIONS.contains(target.getAggregationFunction())) {
+                throw new IllegalArgumentException("unknown aggregation function '"
+                        + target.getAggregationFunction() + "', use one of " + FUNCTIONS);
+            }
+            last |= LAST.equals(target.getAggregationFunction());
+        }
+        String end = getIntervalEnd(timestampColumn, timestampType, minutes, dialect);
+        if (end == null) {
+            throw new IllegalArgumentException("the database can not aggregate timestamps of type " + timestampType);
+        }
+
+        String keyColumn = config.getKeyColumn();
+        String partition = keyColumn != null ? end + ", " + keyColumn : end;
+        Map<String, String> columns = new LinkedHashMap<>();
+        List<Target> aggregated = new ArrayList<>();
+        for (Target target : targets) {
+            String function = target.getAggregationFunction();
+            String expression;
+            if (LAST.equals(function)) {
+                expression = target.getValueColumn();
+            } else if (last) {
+                expression = function.toUpperCase(Locale.ENGLISH) + "(" + target.getValueColumn()
+                        + ") OVER (PARTITION BY " + partition + ")";
+            } else {
+                expression = function.toUpperCase(Locale.ENGLISH) + "(" + target.getValueColumn() + ")";
+            }
+            String alias = columns.get(expression);
+            if (alias == null) {
+                alias = "jevis_v" + columns.size();
+                columns.put(expression, alias);
+            }
+            // the average of integer values is read as double, else it is truncated
+            String valueType = AVG.equals(function) ? RowDecoder.ValueType.DOUBLE.name() : target.getValueType();
+            aggregated.add(new Target(target, TIMESTAMP_ALIAS, alias, valueType));
+        }
+
+        StringBuilder select = new StringBuilder();
+        select.append(end).append(" AS ").append(TIMESTAMP_ALIAS);
+        if (keyColumn != null) {
+            select.append(", ").append(keyColumn);
+        }
+        for (Map.Entry<String, String> column : columns.entrySet()) {
+            select.append(", ").append(column.getKey()).append(" AS ").append(column.getValue());
+        }
+        String raw = "(" + stripOrderBy(config.getQuery()) + ") jevis_raw";
+        StringBuilder query = new StringBuilder();
+        if (last) {
+            query.append("SELECT ").append(TIMESTAMP_ALIAS);
+            if (keyColumn != null) {
+                query.append(", ").append(keyColumn);
+            }
+            for (String alias : columns.values()) {
+                query.append(", ").append(alias);
+            }
+            query.append(" FROM (SELECT ").append(select)
+                    .append(", ROW_NUMBER() OVER (PARTITION BY ").append(partition)
+                    .append(" ORDER BY ").append(timestampColumn).append(" DESC) AS jevis_rn")
+                    .append(" FROM ").append(raw).append(") jevis_agg WHERE jevis_rn = 1");
+        } else {
+            query.append("SELECT ").append(select).append(" FROM ").append(raw)
+                    .append(" GROUP BY ").append(partition);
+        }
+        query.append(" ORDER BY ").append(TIMESTAMP_ALIAS);
+        return new AggregateQuery(query.toString(), aggregated);
+    }
+
+    private static String getIntervalEnd(String column, String type, int minutes, Dialect dialect) {
+        String name = type != null ? type.trim().toLowerCase(Locale.ENGLISH) : "";
+        long seconds = minutes * 60l;
+        if (name.equals(TimestampDecoder.EPOCH) || name.equals("epoch seconds")) {
+            return epochEnd(column, seconds);
+        } else if (name.equals(TimestampDecoder.EPOCH_MILLIS) || name.equals("epochmillis")) {
+            return epochEnd(column, seconds * 1000);
+        } else if (name.equals(TimestampDecoder.TIMESTAMP) || name.equals(TimestampDecoder.DATE)) {
+            return dialect.getIntervalEnd(column, minutes);
+        }
+        return null;
+    }
+
+    private static String epochEnd(String column, long size) {
+        return "(FLOOR((" + column + " - 1) / " + size + ") + 1) * " + size;
+    }
+
+    private static boolean same(String a, String b) {
+        return a == null ? b == null : a.equalsIgnoreCase(b);
+    }
+
+    /**
+     * Removes a trailing ORDER BY and semicolon from the channel query, some
+     * databases do not allow ORDER BY in a derived table. A query which
+     * limits its rows after the ORDER BY is kept as it is.
+     *
+     * @param query the channel query
+     * @return the query without ORDER BY
+     */
+    static String stripOrderBy(String query) {
+        String text = query.trim();
+        while (text.endsWith(";")) {
+            text = text.substring(0, text.length() - 1).trim();
+        }
+        int cut = -1;
+        Matcher matcher = ORDER_BY.matcher(text);
+        while (matcher.find()) {
+            if (isTopLevel(text, matcher.start())) {
+                cut = matcher.start();
+            }
+        }
+        if (cut < 0 || LIMIT.matcher(text.substring(cut)).find() || text.indexOf(')', cut) >= 0) {
+            return text;
+        }
+        return text.substring(0, cut).trim();
+    }
+
+    private static boolean isTopLevel(String text, int position) {
+        int depth = 0;
+        char quote = 0;
+        for (int i = 0; i < position; i++) {
+            char c = text.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"' || c == '`') {
+                quote = c;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            }
+        }
+        return depth == 0 && quote == 0;
+    }
+
+    /**
+     * @return the aggregated query
+     */
+    String getQuery() {
+        return _query;
+    }
+
+    /**
+     * @return the targets, which read the timestamp and value columns of the
+     * aggregated query
+     */
+    List<Target> getTargets() {
+        return _targets;
+    }
+}
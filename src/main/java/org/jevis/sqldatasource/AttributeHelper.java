@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource;
+
+import org.jevis.api.JEVisObject;
+import org.jevis.api.JEVisType;
+import org.jevis.commons.DatabaseHelper;
+
+/**
+ * Reads optional configuration attributes. Older JEVis systems may not have
+ * all types of the SQL classes, so a missing type or sample returns null
+ * instead of failing the whole initialization.
+ */
+final class AttributeHelper {
+
+    private AttributeHelper() {
+    }
+
+    private static JEVisType getType(JEVisObject object, String typeName) throws Exception {
+        return object.getJEVisClass().getType(typeName);
+    }
+
+    static String getString(JEVisObject object, String typeName) {
+        try {
+            JEVisType type = getType(object, typeName);
+            if (type == null) {
+                return null;
+            }
+            String value = DatabaseHelper.getObjectAsString(object, type);
+            if (value == null || value.isEmpty()) {
+                return null;
+            }
+            return value;
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    static Integer getInteger(JEVisObject object, String typeName) {
+        try {
+            JEVisType type = getType(object, typeName);
+            if (type == null) {
+                return null;
+            }
+            return DatabaseHelper.getObjectAsInteger(object, type);
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    static Boolean getBoolean(JEVisObject object, String typeName) {
+        try {
+            JEVisType type = getType(object, typeName);
+            if (type == null) {
+                return null;
+            }
+            return DatabaseHelper.getObjectAsBoolean(object, type);
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    static int getInteger(JEVisObject object, String typeName, int defaultValue) {
+        Integer value = getInteger(object, typeName);
+        return value != null ? value : defaultValue;
+    }
+
+    static boolean getBoolean(JEVisObject object, String typeName, boolean defaultValue) {
+        Boolean value = getBoolean(object, typeName);
+        return value != null ? value : defaultValue;
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import org.jevis.api.JEVisObject;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDateTime;
+
+/**
+ * Cheap check whether the source of a channel has rows after its Last
+ * Readout, so channels without new data are skipped before their
+ * configuration is loaded and their query is run.
+ *
+ * The probe is the 'Probe Query' of the channel, a query without parameters
+ * which returns the newest timestamp of the source in its first column. With
+ * 'Change Probe' enabled and no probe query, the query is derived from the
+ * channel attributes as SELECT MAX([Column Timestamp]) FROM [Table]. The
+ * timestamp is decoded with the 'Timestamp Format' of the channel, a JDBC
+ * timestamp if it is not set.
+ */
+final class ChangeProbe {
+
+    private final String _query;
+    private final TimestampDecoder _decoder;
+    private final boolean _precise;
+    private final boolean _keyset;
+
+    private ChangeProbe(String query, TimestampDecoder decoder, boolean precise, boolean keyset) {
+        _query = query;
+        _decoder = decoder;
+        _precise = precise;
+        _keyset = keyset;
+    }
+
+    /**
+     * Reads the probe settings from the attributes of the channel.
+     *
+     * @param channel SQL Channel object
+     * @param zone zone of local timestamps in the database, null for the
+     * default zone
+     * @return the probe, null if the channel has no probe
+     * @throws IllegalArgumentException if the probe settings are incomplete
+     */
+    static ChangeProbe create(JEVisObject channel, DateTimeZone zone) {
+        String query = AttributeHelper.getString(channel, SQLDriverAbstract.SQLChannel.PROBE_QUERY);
+        if (query == null && AttributeHelper.getBoolean(channel, SQLDriverAbstract.SQLChannel.CHANGE_PROBE, false)) {
+            String table = AttributeHelper.getString(channel, SQLDriverAbstract.SQLChannel.TABLE);
+            String column = AttributeHelper.getString(channel, SQLDriverAbstract.SQLChannel.COLUMN_TIMESTAMP);
+            if (table == null || column == null) {
+                throw new IllegalArgumentException("change probe needs a table and a timestamp column");
+            }
+            query = "SELECT MAX(" + column.trim() + ") FROM " + table.trim();
+        }
+        if (query == null || query.trim().isEmpty()) {
+            return null;
+        }
+        String format = AttributeHelper.getString(channel, SQLDriverAbstract.SQLChannel.TIMESTAMP_FORMAT);
+        TimestampDecoder decoder = TimestampDecoder.create(format != null ? format : TimestampDecoder.TIMESTAMP, zone);
+        boolean keyset = AttributeHelper.getString(channel, SQLDriverAbstract.SQLChannel.COLUMN_ID) != null;
+        boolean precise = keyset
+                || AttributeHelper.getBoolean(channel, SQLDriverAbstract.SQLChannel.PRECISE_WATERMARK, false);
+        return new ChangeProbe(query.trim(), decoder, precise, keyset);
+    }
+
+    String getQuery() {
+        return _query;
+    }
+
+    /**
+     * Runs the probe and compares the newest timestamp with the Last Readout
+     * like the query does, as local time of the database. Without precise
+     * watermark the milliseconds are ignored. Channels with an ID column may
+     * have new rows with the same timestamp as the Last Readout, for them
+     * only an older timestamp counts as unchanged.
+     *
+     * @param con connection of the data source
+     * @param lastReadout Last Readout of the channel
+     * @param timeout query timeout in seconds, 0 for none
+     * @param deadline deadline of the run, cancels the probe when it expires
+     * @return false if the source has no rows after the Last Readout
+     * @throws SQLException
+     */
+    boolean hasChanges(Connection con, Watermark lastReadout, int timeout, RunDeadline deadline)
+            throws SQLException {
+        LocalDateTime newest = null;
+        PreparedStatement ps = con.prepareStatement(_query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        deadline.register(ps);
+        try {
+            if (timeout > 0) {
+                ps.setQueryTimeout(timeout);
+            }
+            ResultSet rs = ps.executeQuery();
+            if (rs.next()) {
+                Object value = _decoder.capture(rs, 1);
+                if (value != null) {
+                    newest = new LocalDateTime(_decoder.decodeMillis(value), _decoder.getZone());
+                }
+            }
+        } finally {
+            deadline.unregister(ps);
+            ps.close();
+        }
+        if (newest == null) {
+            return false;
+        }
+        if (!_precise) {
+            newest = newest.withMillisOfSecond(0);
+        }
+        LocalDateTime last = lastReadout.getTimestamp().withZone(_decoder.getZone()).toLocalDateTime();
+        return _keyset ? !newest.isBefore(last) : newest.isAfter(last);
+    }
+}
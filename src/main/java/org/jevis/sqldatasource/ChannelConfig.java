@@ -0,0 +1,208 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.jevis.api.JEVisAttribute;
+import org.jevis.api.JEVisException;
+import org.jevis.api.JEVisObject;
+import org.joda.time.DateTime;
+
+/**
+ * Immutable configuration of a SQL Channel with its variables and targets.
+ * Everything except the Last Readout, which changes with every run.
+ */
+class ChannelConfig {
+
+    private final long _channelID;
+    private final String _query;
+    private final int _fetchSize;
+    private final boolean _streaming;
+    private final int _readWindow;
+    private final String _idColumn;
+    private final String _keyColumn;
+    private final boolean _preciseWatermark;
+    private final List<Variable> _variables;
+    private final List<Target> _targets;
+    private final String _fingerprint;
+    private final boolean _aggregated;
+
+    ChannelConfig(long channelID, String query, int fetchSize, boolean streaming, int readWindow, String idColumn,
+            String keyColumn, boolean preciseWatermark, List<Variable> variables, List<Target> targets,
+            String fingerprint) {
+        this(channelID, query, fetchSize, streaming, readWindow, idColumn, keyColumn, preciseWatermark, variables,
+                targets, fingerprint, false);
+    }
+
+    private ChannelConfig(long channelID, String query, int fetchSize, boolean streaming, int readWindow,
+            String idColumn, String keyColumn, boolean preciseWatermark, List<Variable> variables,
+            List<Target> targets, String fingerprint, boolean aggregated) {
+        _channelID = channelID;
+        _query = query;
+        _fetchSize = fetchSize;
+        _streaming = streaming;
+        _readWindow = readWindow;
+        _idColumn = idColumn;
+        _keyColumn = keyColumn;
+        _preciseWatermark = preciseWatermark;
+        _variables = Collections.unmodifiableList(variables);
+        _targets = Collections.unmodifiableList(targets);
+        _fingerprint = fingerprint;
+        _aggregated = aggregated;
+    }
+
+    /**
+     * Builds a cheap description of the modification state of a channel: its
+     * ID with the newest timestamp of the latest samples of its own
+     * attributes, except the Last Readout. Only the channel object is read,
+     * so changes of its variables, data points and targets are picked up
+     * when the ConfigSnapshot expires.
+     *
+     * @param channel SQL Channel object
+     * @return the fingerprint
+     * @throws JEVisException
+     */
+    static String fingerprint(JEVisObject channel) throws JEVisException {
+        long modified = 0;
+        for (JEVisAttribute attribute : channel.getAttributes()) {
+            if (SQLDriverAbstract.SQLChannel.LAST_READOUT.equals(attribute.getName())) {
+                continue;
+            }
+            DateTime timestamp = attribute.getTimestampFromLastSample();
+            if (timestamp != null) {
+                modified = Math.max(modified, timestamp.getMillis());
+            }
+        }
+        return channel.getID() + "@" + modified;
+    }
+
+    /**
+     * @return a copy without the targets whose attribute could not be
+     * resolved
+     */
+    ChannelConfig withResolvedTargets() {
+        List<Target> resolved = new ArrayList<>();
+        for (Target target : _targets) {
+            if (target.getAttribute() != null) {
+                resolved.add(target);
+            }
+        }
+        return new ChannelConfig(_channelID, _query, _fetchSize, _streaming, _readWindow, _idColumn, _keyColumn,
+                _preciseWatermark, _variables, resolved, _fingerprint);
+    }
+
+    /**
+     * @param aggregate the aggregated query of this channel
+     * @return a copy which runs the aggregated query
+     */
+    ChannelConfig withAggregation(AggregateQuery aggregate) {
+        return new ChannelConfig(_channelID, aggregate.getQuery(), _fetchSize, _streaming, _readWindow, _idColumn,
+                _keyColumn, _preciseWatermark, _variables, aggregate.getTargets(), _fingerprint, true);
+    }
+
+    long getChannelID() {
+        return _channelID;
+    }
+
+    String getQuery() {
+        return _query;
+    }
+
+    int getFetchSize() {
+        return _fetchSize;
+    }
+
+    boolean isStreaming() {
+        return _streaming;
+    }
+
+    /**
+     * @return size of the read window in minutes, 0 to read everything at
+     * once
+     */
+    int getReadWindow() {
+        return _readWindow;
+    }
+
+    /**
+     * @return name of the ID column, null if none is configured
+     */
+    String getIDColumn() {
+        return _idColumn;
+    }
+
+    /**
+     * @return name of the column which holds the key of the data points,
+     * null if every data point reads every row
+     */
+    String getKeyColumn() {
+        return _keyColumn;
+    }
+
+    /**
+     * @return true if the Last Readout keeps milliseconds
+     */
+    boolean isPreciseWatermark() {
+        return _preciseWatermark || usesKeyset();
+    }
+
+    /**
+     * @return true if the Last Readout is a composite of timestamp and ID,
+     * which needs an ID column and a 'lastid' variable
+     */
+    boolean usesKeyset() {
+        return _idColumn != null && hasCondition(SQLDriverAbstract.CONDITION_LAST_ID);
+    }
+
+    /**
+     * @param condition condition like 'windowend'
+     * @return true if one of the variables uses the condition
+     */
+    boolean hasCondition(String condition) {
+        for (Variable variable : _variables) {
+            if (condition.equalsIgnoreCase(variable.getCondition())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    List<Variable> getVariables() {
+        return _variables;
+    }
+
+    List<Target> getTargets() {
+        return _targets;
+    }
+
+    /**
+     * @return true if the query aggregates the values in the database
+     */
+    boolean isAggregated() {
+        return _aggregated;
+    }
+
+    String getFingerprint() {
+        return _fingerprint;
+    }
+}
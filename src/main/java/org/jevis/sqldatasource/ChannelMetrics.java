@@ -0,0 +1,291 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the performance figures of one SQL Channel over all runs. A run
+ * measures its phases in a Run object, which is added to the histograms and
+ * counters when the run is finished.
+ */
+final class ChannelMetrics implements ChannelMetricsMXBean {
+
+    enum Phase {
+        PREPARE, EXECUTE, FETCH, PARSE, IMPORT, COMMIT
+    }
+
+    private final long _channelID;
+    private final String _channelName;
+    private final String _server;
+    private volatile Map<Phase, LatencyHistogram> _phases;
+    private volatile LatencyHistogram _runs;
+    private final AtomicLong _failed = new AtomicLong();
+    private final AtomicLong _skipped = new AtomicLong();
+    private final AtomicLong _timedOut = new AtomicLong();
+    private final AtomicLong _rows = new AtomicLong();
+    private final AtomicLong _rejected = new AtomicLong();
+    private final AtomicLong _imported = new AtomicLong();
+    private final AtomicLong _bytes = new AtomicLong();
+    private volatile double _rowsPerSecond;
+    private volatile double _bytesPerSecond;
+    private volatile double _samplesPerSecond;
+    private volatile double _lastRunTime;
+
+    ChannelMetrics(long channelID, String channelName, String server) {
+        _channelID = channelID;
+        _channelName = channelName;
+        _server = server;
+        reset();
+    }
+
+    /**
+     * Starts the measurement of a channel run.
+     *
+     * @return the run, has to be finished with finish()
+     */
+    Run start() {
+        return new Run();
+    }
+
+    /**
+     * Counts a run which was skipped because the change probe found no new
+     * data.
+     */
+    void skip() {
+        _skipped.incrementAndGet();
+    }
+
+    /**
+     * Counts a run which was cancelled or not started because the run
+     * timeout of the server was reached.
+     */
+    void timeout() {
+        _timedOut.incrementAndGet();
+    }
+
+    @Override
+    public long getChannelID() {
+        return _channelID;
+    }
+
+    @Override
+    public String getChannelName() {
+        return _channelName;
+    }
+
+    @Override
+    public String getServer() {
+        return _server;
+    }
+
+    @Override
+    public long getRuns() {
+        return _runs.getCount();
+    }
+
+    @Override
+    public long getFailedRuns() {
+        return _failed.get();
+    }
+
+    @Override
+    public long getSkippedRuns() {
+        return _skipped.get();
+    }
+
+    @Override
+    public long getTimedOutRuns() {
+        return _timedOut.get();
+    }
+
+    @Override
+    public long getRowsRead() {
+        return _rows.get();
+    }
+
+    @Override
+    public long getRowsRejected() {
+        return _rejected.get();
+    }
+
+    @Override
+    public long getSamplesImported() {
+        return _imported.get();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return _bytes.get();
+    }
+
+    @Override
+    public double getRowsPerSecond() {
+        return _rowsPerSecond;
+    }
+
+    @Override
+    public double getSamplesPerSecond() {
+        return _samplesPerSecond;
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        return _bytesPerSecond;
+    }
+
+    @Override
+    public double getLastRunTime() {
+        return _lastRunTime;
+    }
+
+    @Override
+    public LatencySummary getRunLatency() {
+        return _runs.summarize();
+    }
+
+    @Override
+    public LatencySummary getPrepareLatency() {
+        return _phases.get(Phase.PREPARE).summarize();
+    }
+
+    @Override
+    public LatencySummary getExecuteLatency() {
+        return _phases.get(Phase.EXECUTE).summarize();
+    }
+
+    @Override
+    public LatencySummary getFetchLatency() {
+        return _phases.get(Phase.FETCH).summarize();
+    }
+
+    @Override
+    public LatencySummary getParseLatency() {
+        return _phases.get(Phase.PARSE).summarize();
+    }
+
+    @Override
+    public LatencySummary getImportLatency() {
+        return _phases.get(Phase.IMPORT).summarize();
+    }
+
+    @Override
+    public LatencySummary getCommitLatency() {
+        return _phases.get(Phase.COMMIT).summarize();
+    }
+
+    @Override
+    public void reset() {
+        Map<Phase, LatencyHistogram> phases = new EnumMap<>(Phase.class);
+        for (Phase phase : Phase.values()) {
+            phases.put(phase, new LatencyHistogram());
+        }
+        _phases = phases;
+        _runs = new LatencyHistogram();
+        _failed.set(0);
+        _skipped.set(0);
+        _timedOut.set(0);
+        _rows.set(0);
+        _rejected.set(0);
+        _imported.set(0);
+        _bytes.set(0);
+        _rowsPerSecond = 0;
+        _bytesPerSecond = 0;
+        _samplesPerSecond = 0;
+        _lastRunTime = 0;
+    }
+
+    /**
+     * Measurement of one channel run. In the pipelined mode the stages add
+     * their figures from their own threads.
+     */
+    final class Run {
+
+        private final long _start = System.nanoTime();
+        private final long[] _nanos = new long[Phase.values().length];
+        private long _rows = 0;
+        private long _rejected = 0;
+        private long _imported = 0;
+        private long _bytes = 0;
+
+        synchronized void add(Phase phase, long nanos) {
+            _nanos[phase.ordinal()] += nanos;
+        }
+
+        synchronized long get(Phase phase) {
+            return _nanos[phase.ordinal()];
+        }
+
+        synchronized void addRows(long rows, long rejected, long bytes) {
+            _rows += rows;
+            _rejected += rejected;
+            _bytes += bytes;
+        }
+
+        synchronized void addImported(long samples) {
+            _imported += samples;
+        }
+
+        synchronized long getRows() {
+            return _rows;
+        }
+
+        synchronized long getImported() {
+            return _imported;
+        }
+
+        /**
+         * @return milliseconds since the start of the run
+         */
+        double getElapsed() {
+            return (System.nanoTime() - _start) / 1000000d;
+        }
+
+        /**
+         * Adds the run to the channel figures.
+         *
+         * @param success false if the run was aborted by an error
+         */
+        synchronized void finish(boolean success) {
+            long total = System.nanoTime() - _start;
+            Map<Phase, LatencyHistogram> phases = _phases;
+            for (Phase phase : Phase.values()) {
+                phases.get(phase).record(_nanos[phase.ordinal()]);
+            }
+            _runs.record(total);
+            if (!success) {
+                _failed.incrementAndGet();
+            }
+            ChannelMetrics.this._rows.addAndGet(_rows);
+            ChannelMetrics.this._rejected.addAndGet(_rejected);
+            ChannelMetrics.this._imported.addAndGet(_imported);
+            ChannelMetrics.this._bytes.addAndGet(_bytes);
+            double seconds = Math.max(total, 1) / (double) TimeUnit.SECONDS.toNanos(1);
+            _rowsPerSecond = _rows / seconds;
+            _samplesPerSecond = _imported / seconds;
+            _bytesPerSecond = _bytes / seconds;
+            _lastRunTime = total / 1000000d;
+        }
+    }
+}
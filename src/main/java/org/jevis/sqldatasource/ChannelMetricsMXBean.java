@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource;
+
+/**
+ * Performance figures of one SQL Channel, registered as
+ * org.jevis.sqldatasource:type=SQLChannel,server=[server ID],channel=[channel ID].
+ *
+ * The latencies are histograms over the channel runs, each phase is the time
+ * one run spent in it.
+ */
+public interface ChannelMetricsMXBean {
+
+    long getChannelID();
+
+    String getChannelName();
+
+    String getServer();
+
+    long getRuns();
+
+    long getFailedRuns();
+
+    /**
+     * @return runs which were skipped because the change probe found no new
+     * data
+     */
+    long getSkippedRuns();
+
+    /**
+     * @return runs which were cancelled or not started because the run
+     * timeout of the server was reached
+     */
+    long getTimedOutRuns();
+
+    long getRowsRead();
+
+    long getRowsRejected();
+
+    long getSamplesImported();
+
+    /**
+     * @return estimated bytes of the rows read, from the widths of the
+     * decoded columns and the length of the strings
+     */
+    long getBytesRead();
+
+    /**
+     * @return rows per second of the last run
+     */
+    double getRowsPerSecond();
+
+    /**
+     * @return imported samples per second of the last run
+     */
+    double getSamplesPerSecond();
+
+    /**
+     * @return estimated bytes read per second of the last run
+     */
+    double getBytesPerSecond();
+
+    /**
+     * @return duration of the last run in milliseconds
+     */
+    double getLastRunTime();
+
+    LatencySummary getRunLatency();
+
+    LatencySummary getPrepareLatency();
+
+    LatencySummary getExecuteLatency();
+
+    LatencySummary getFetchLatency();
+
+    LatencySummary getParseLatency();
+
+    LatencySummary getImportLatency();
+
+    LatencySummary getCommitLatency();
+
+    /**
+     * Clears all counters and histograms.
+     */
+    void reset();
+}
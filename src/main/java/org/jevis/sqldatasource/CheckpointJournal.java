@@ -0,0 +1,355 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Local append-only journal of the Last Readout checkpoints of a data
+ * source. A checkpoint is appended to the file instead of being written to
+ * JEVis, the driver writes the newest checkpoint of every channel to JEVis
+ * on a coarser schedule and the journal is compacted afterwards.
+ *
+ * Every record is one line 'channel ID TAB base TAB watermark'. The base is
+ * the Last Readout in JEVis the checkpoint was made on, a checkpoint is only
+ * used while the Last Readout in JEVis still has this value, so a Last
+ * Readout which was reset by a user wins over the journal. A record without
+ * watermark drops the checkpoint of the channel. An incomplete last line,
+ * left by a crash while writing, is ignored when the journal is replayed.
+ *
+ * Records are written to the file at once, so they survive a crash of the
+ * collector. They are forced to the disk at most once per SYNC_INTERVAL and
+ * at the end of every run.
+ */
+final class CheckpointJournal {
+
+    static final long SYNC_INTERVAL = 1000;
+    private static final Logger LOG = Logger.getLogger(CheckpointJournal.class.getName());
+    private static final Map<Long, CheckpointJournal> JOURNALS = new ConcurrentHashMap<>();
+    private static final ReentrantLock LOCK = new ReentrantLock();
+    private static final char SEPARATOR = '\t';
+
+    /**
+     * Newest checkpoint of a channel which was not written to JEVis yet.
+     */
+    static final class Checkpoint {
+
+        private final String _base;
+        private final String _watermark;
+
+        Checkpoint(String base, String watermark) {
+            _base = base;
+            _watermark = watermark;
+        }
+
+        /**
+         * @return the Last Readout in JEVis when the checkpoint was made, an
+         * empty string if it had none
+         */
+        String getBase() {
+            return _base;
+        }
+
+        /**
+         * @return the Last Readout value of the checkpoint
+         */
+        String getWatermark() {
+            return _watermark;
+        }
+    }
+
+    private final File _file;
+    private final ReentrantLock _lock = new ReentrantLock();
+    private final Map<Long, Checkpoint> _pending = new LinkedHashMap<>();
+    private FileChannel _channel;
+    private long _lastSync = System.currentTimeMillis();
+    private long _lastFlush = System.currentTimeMillis();
+    private boolean _dirty = false;
+
+    private CheckpointJournal(File file) {
+        _file = file;
+    }
+
+    /**
+     * Returns the journal of a data source. On the first call in the JVM the
+     * file is replayed, so the checkpoints of a collector which stopped are
+     * used again.
+     *
+     * @param dataSourceID ID of the SQL Server object
+     * @param file journal file, created if it does not exist
+     * @return the journal
+     * @throws IOException if the file can not be read or opened
+     */
+    static CheckpointJournal open(long dataSourceID, File file) throws IOException {
+        LOCK.lock();
+        try {
+            CheckpointJournal journal = JOURNALS.get(dataSourceID);
+            if (journal != null && journal._file.equals(file)) {
+                return journal;
+            }
+            if (journal != null) {
+                journal.close();
+            }
+            journal = new CheckpointJournal(file);
+            journal.replay();
+            JOURNALS.put(dataSourceID, journal);
+            return journal;
+        } finally {
+            LOCK.unlock();
+        }
+    }
+
+    /**
+     * Closes the journal of a data source which no longer uses one.
+     *
+     * @param dataSourceID ID of the SQL Server object
+     */
+    static void close(long dataSourceID) {
+        LOCK.lock();
+        try {
+            CheckpointJournal journal = JOURNALS.remove(dataSourceID);
+            if (journal != null) {
+                journal.close();
+            }
+        } finally {
+            LOCK.unlock();
+        }
+    }
+
+    /**
+     * @param channelID ID of the channel
+     * @return the checkpoint which was not written to JEVis yet, null if there
+     * is none
+     */
+    Checkpoint get(long channelID) {
+        _lock.lock();
+        try {
+            return _pending.get(channelID);
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * @return the checkpoints which were not written to JEVis yet
+     */
+    Map<Long, Checkpoint> getPending() {
+        _lock.lock();
+        try {
+            return new LinkedHashMap<>(_pending);
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Appends a checkpoint.
+     *
+     * @param channelID ID of the channel
+     * @param base Last Readout in JEVis, an empty string if there is none
+     * @param watermark new Last Readout value
+     * @throws IOException if the record could not be written
+     */
+    void record(long channelID, String base, String watermark) throws IOException {
+        _lock.lock();
+        try {
+            append(channelID, base, watermark);
+            _pending.put(channelID, new Checkpoint(base, watermark));
+            if (System.currentTimeMillis() - _lastSync >= SYNC_INTERVAL) {
+                sync();
+            }
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Drops the checkpoint of a channel, e.g. because its Last Readout was
+     * changed in JEVis.
+     *
+     * @param channelID ID of the channel
+     * @throws IOException if the record could not be written
+     */
+    void discard(long channelID) throws IOException {
+        _lock.lock();
+        try {
+            if (_pending.remove(channelID) != null) {
+                append(channelID, "", "");
+            }
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Forces the written records to the disk.
+     *
+     * @throws IOException
+     */
+    void sync() throws IOException {
+        _lock.lock();
+        try {
+            if (_dirty) {
+                _channel.force(false);
+                _dirty = false;
+            }
+            _lastSync = System.currentTimeMillis();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * @param interval flush interval in milliseconds
+     * @return true if the checkpoints have to be written to JEVis
+     */
+    boolean isFlushDue(long interval) {
+        _lock.lock();
+        try {
+            return !_pending.isEmpty() && System.currentTimeMillis() - _lastFlush >= interval;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the checkpoints which were written to JEVis and compacts the
+     * file to the checkpoints which are left.
+     *
+     * @param written the Last Readout values written to JEVis per channel
+     * @throws IOException if the file could not be rewritten
+     */
+    void flushed(Map<Long, String> written) throws IOException {
+        _lock.lock();
+        try {
+            for (Map.Entry<Long, String> entry : written.entrySet()) {
+                Checkpoint checkpoint = _pending.get(entry.getKey());
+                if (checkpoint != null && checkpoint._watermark.equals(entry.getValue())) {
+                    _pending.remove(entry.getKey());
+                }
+            }
+            _lastFlush = System.currentTimeMillis();
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            for (Map.Entry<Long, Checkpoint> entry : _pending.entrySet()) {
+                content.write(format(entry.getKey(), entry.getValue()._base, entry.getValue()._watermark));
+            }
+            File compacted = new File(_file.getPath() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(compacted)) {
+                out.write(content.toByteArray());
+                out.getFD().sync();
+            }
+            _channel.close();
+            Files.move(compacted.toPath(), _file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            openChannel();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private void replay() throws IOException {
+        if (_file.exists()) {
+            byte[] content = Files.readAllBytes(_file.toPath());
+            int start = 0;
+            int records = 0;
+            for (int i = 0; i < content.length; i++) {
+                if (content[i] != '\n') {
+                    continue;
+                }
+                String line = new String(content, start, i - start, StandardCharsets.UTF_8);
+                start = i + 1;
+                String[] fields = line.split(String.valueOf(SEPARATOR), -1);
+                if (fields.length != 3) {
+                    LOG.log(Level.WARNING, "Invalid record in {0}: {1}", new Object[]{_file, line});
+                    continue;
+                }
+                long channelID;
+                try {
+                    channelID = Long.parseLong(fields[0]);
+                } catch (NumberFormatException ex) {
+                    LOG.log(Level.WARNING, "Invalid record in {0}: {1}", new Object[]{_file, line});
+                    continue;
+                }
+                if (fields[2].isEmpty()) {
+                    _pending.remove(channelID);
+                } else {
+                    _pending.put(channelID, new Checkpoint(fields[1], fields[2]));
+                }
+                records++;
+            }
+            if (start < content.length) {
+                LOG.log(Level.WARNING, "Ignore incomplete last record of {0}", _file);
+            }
+            LOG.log(Level.FINE, "Replayed {0} records of {1}", new Object[]{records, _file});
+        } else if (_file.getParentFile() != null) {
+            Files.createDirectories(_file.getParentFile().toPath());
+        }
+        openChannel();
+        if (_file.length() > 0 && _pending.isEmpty()) {
+            flushed(new LinkedHashMap<Long, String>());
+        }
+    }
+
+    private void openChannel() throws IOException {
+        _channel = FileChannel.open(_file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    private void append(long channelID, String base, String watermark) throws IOException {
+        if (base.indexOf(SEPARATOR) >= 0 || base.indexOf('\n') >= 0
+                || watermark.indexOf(SEPARATOR) >= 0 || watermark.indexOf('\n') >= 0) {
+            throw new IOException("Last Readout can not be journaled: " + watermark);
+        }
+        ByteBuffer record = ByteBuffer.wrap(format(channelID, base, watermark));
+        while (record.hasRemaining()) {
+            _channel.write(record);
+        }
+        _dirty = true;
+    }
+
+    private static byte[] format(long channelID, String base, String watermark) {
+        return (channelID + "" + SEPARATOR + base + SEPARATOR + watermark + '\n').getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void close() {
+        try {
+            sync();
+            _channel.close();
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "Error while closing checkpoint journal " + _file, ex);
+        }
+    }
+}
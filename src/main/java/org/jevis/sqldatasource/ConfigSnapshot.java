@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Channel configurations of one SQL Server object, kept in the JVM between
+ * runs. A channel is only read again from JEVis if its fingerprint changed.
+ * The fingerprint only covers the channel object, so the whole snapshot is
+ * dropped once it is older than the refresh interval to pick up changes of
+ * the variables, data points and target objects as well.
+ */
+final class ConfigSnapshot {
+
+    private static final Map<Long, ConfigSnapshot> SNAPSHOTS = new ConcurrentHashMap<>();
+
+    private final Map<Long, ChannelConfig> _channels = new ConcurrentHashMap<>();
+    private final long _created = System.currentTimeMillis();
+
+    private ConfigSnapshot() {
+    }
+
+    /**
+     * Returns the snapshot of a data source. A new, empty snapshot is created
+     * if there is none or the existing one is older than maxAge.
+     *
+     * @param dataSourceID ID of the SQL Server object
+     * @param maxAge refresh interval in milliseconds
+     * @return the snapshot
+     */
+    static ConfigSnapshot get(long dataSourceID, long maxAge) {
+        ConfigSnapshot snapshot = SNAPSHOTS.get(dataSourceID);
+        if (snapshot == null || System.currentTimeMillis() - snapshot._created > maxAge) {
+            snapshot = new ConfigSnapshot();
+            SNAPSHOTS.put(dataSourceID, snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Drops the snapshot of a data source.
+     *
+     * @param dataSourceID ID of the SQL Server object
+     */
+    static void invalidate(long dataSourceID) {
+        SNAPSHOTS.remove(dataSourceID);
+    }
+
+    /**
+     * @param channelID ID of the channel
+     * @param fingerprint current fingerprint of the channel
+     * @return the cached configuration or null if there is none or the
+     * channel changed
+     */
+    ChannelConfig get(long channelID, String fingerprint) {
+        ChannelConfig config = _channels.get(channelID);
+        if (config != null && config.getFingerprint().equals(fingerprint)) {
+            return config;
+        }
+        return null;
+    }
+
+    void put(ChannelConfig config) {
+        _channels.put(config.getChannelID(), config);
+    }
+
+    /**
+     * Removes the configurations of channels which no longer exist.
+     *
+     * @param channelIDs IDs of the current channels
+     */
+    void retain(Collection<Long> channelIDs) {
+        _channels.keySet().retainAll(channelIDs);
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import org.jevis.commons.driver.Result;
+
+/**
+ * Remembers the recently imported samples of every target of a data source,
+ * so rows which are read again by overlapping queries are not imported twice.
+ * A sample counts as duplicate if a sample with the same timestamp and the
+ * same value was imported before, a corrected value is imported again.
+ *
+ * Per target only the samples within the horizon before the newest imported
+ * sample are kept, and at most MAX_ENTRIES of them.
+ */
+final class DedupIndex {
+
+    static final int MAX_ENTRIES = 100000;
+    private static final Map<Long, DedupIndex> INDEXES = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<Long, ConcurrentHashMap<String, TargetIndex>> _targets = new ConcurrentHashMap<>();
+    private final long _horizon;
+
+    private DedupIndex(long horizon) {
+        _horizon = horizon;
+    }
+
+    /**
+     * Returns the index of a data source, which is kept between runs.
+     *
+     * @param dataSourceID ID of the SQL Server object
+     * @param horizon time span in milliseconds which is remembered per target
+     * @return the index
+     */
+    static DedupIndex get(long dataSourceID, long horizon) {
+        DedupIndex index = INDEXES.get(dataSourceID);
+        if (index == null || index._horizon != horizon) {
+            index = new DedupIndex(horizon);
+            INDEXES.put(dataSourceID, index);
+        }
+        return index;
+    }
+
+    static void remove(long dataSourceID) {
+        INDEXES.remove(dataSourceID);
+    }
+
+    /**
+     * @param onlineID ID of the target object
+     * @param attribute name of the target attribute
+     * @param timestamp timestamp of the sample in milliseconds
+     * @param valueHash hash of the value, see hash()
+     * @return true if the same sample was already imported
+     */
+    boolean contains(long onlineID, String attribute, long timestamp, int valueHash) {
+        ConcurrentHashMap<String, TargetIndex> attributes = _targets.get(onlineID);
+        if (attributes == null) {
+            return false;
+        }
+        TargetIndex index = attributes.get(attribute);
+        return index != null && index.contains(timestamp, valueHash);
+    }
+
+    /**
+     * Adds successfully imported samples.
+     *
+     * @param results imported samples
+     */
+    void record(List<Result> results) {
+        for (Result result : results) {
+            getIndex(result).add(result.getDate().getMillis(), hash(result.getValue()));
+        }
+    }
+
+    private TargetIndex getIndex(Result result) {
+        ConcurrentHashMap<String, TargetIndex> attributes = _targets.get(result.getOnlineID());
+        if (attributes == null) {
+            attributes = new ConcurrentHashMap<>();
+            ConcurrentHashMap<String, TargetIndex> existing = _targets.putIfAbsent(result.getOnlineID(), attributes);
+            if (existing != null) {
+                attributes = existing;
+            }
+        }
+        TargetIndex index = attributes.get(result.getAttribute());
+        if (index == null) {
+            index = new TargetIndex();
+            TargetIndex existing = attributes.putIfAbsent(result.getAttribute(), index);
+            if (existing != null) {
+                index = existing;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Hash of a value which does not depend on the boxed type, so a value read
+     * as Integer matches the same value read as Long.
+     */
+    static int hash(Object value) {
+        if (value instanceof Number && !(value instanceof Double) && !(value instanceof Float)) {
+            return hash(((Number) value).longValue());
+        }
+        if (value instanceof Number) {
+            return hash(((Number) value).doubleValue());
+        }
+        return Objects.hashCode(value);
+    }
+
+    static int hash(double value) {
+        return Double.hashCode(value);
+    }
+
+    static int hash(long value) {
+        return Long.hashCode(value);
+    }
+
+    /**
+     * Imported timestamps of one target with the hash of their value.
+     */
+    private class TargetIndex {
+
+        private final TreeMap<Long, Integer> _samples = new TreeMap<>();
+
+        synchronized boolean contains(long timestamp, int valueHash) {
+            Integer hash = _samples.get(timestamp);
+            return hash != null && hash == valueHash;
+        }
+
+        synchronized void add(long timestamp, int valueHash) {
+            _samples.put(timestamp, valueHash);
+            long oldest = _samples.lastKey() - _horizon;
+            while (!_samples.isEmpty() && (_samples.firstKey() < oldest || _samples.size() > MAX_ENTRIES)) {
+                _samples.pollFirstEntry();
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.jevis.api.JEVisObject;
+
+/**
+ * Keeps the channel metrics of a data source between runs and registers them
+ * with the platform MBean server, so they can be read with JConsole or any
+ * other JMX client.
+ */
+final class DriverMetrics {
+
+    static final String DOMAIN = "org.jevis.sqldatasource";
+    private static final Logger LOG = Logger.getLogger(DriverMetrics.class.getName());
+    private static final Map<Long, DriverMetrics> METRICS = new ConcurrentHashMap<>();
+
+    private final long _serverID;
+    private final String _server;
+    private final Map<Long, ChannelMetrics> _channels = new ConcurrentHashMap<>();
+
+    private DriverMetrics(long serverID, String server) {
+        _serverID = serverID;
+        _server = server;
+    }
+
+    /**
+     * Returns the metrics of a data source, which are kept between runs.
+     *
+     * @param serverID ID of the SQL Server object
+     * @param server description of the server, shown with every channel
+     * @return the metrics
+     */
+    static DriverMetrics get(long serverID, String server) {
+        DriverMetrics metrics = METRICS.get(serverID);
+        if (metrics == null || !metrics._server.equals(server)) {
+            if (metrics != null) {
+                metrics.unregister();
+            }
+            metrics = new DriverMetrics(serverID, server);
+            METRICS.put(serverID, metrics);
+        }
+        return metrics;
+    }
+
+    /**
+     * Returns the metrics of a channel and registers them on first use.
+     *
+     * @param channel SQL Channel object
+     * @return the metrics of the channel
+     */
+    ChannelMetrics getChannel(JEVisObject channel) {
+        ChannelMetrics metrics = _channels.get(channel.getID());
+        if (metrics == null) {
+            synchronized (_channels) {
+                metrics = _channels.get(channel.getID());
+                if (metrics == null) {
+                    metrics = new ChannelMetrics(channel.getID(), channel.getName(), _server);
+                    register(metrics);
+                    _channels.put(channel.getID(), metrics);
+                }
+            }
+        }
+        return metrics;
+    }
+
+    private ObjectName getObjectName(long channelID) throws JMException {
+        return new ObjectName(String.format("%s:type=SQLChannel,server=%s,channel=%s", DOMAIN, _serverID, channelID));
+    }
+
+    private void register(ChannelMetrics metrics) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = getObjectName(metrics.getChannelID());
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(metrics, name);
+        } catch (JMException | SecurityException ex) {
+            LOG.log(Level.WARNING, "Could not register metrics of channel " + metrics.getChannelID(), ex);
+        }
+    }
+
+    private void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (Long channelID : _channels.keySet()) {
+            try {
+                ObjectName name = getObjectName(channelID);
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+            } catch (JMException | SecurityException ex) {
+                LOG.log(Level.FINE, "Could not unregister metrics of channel " + channelID, ex);
+            }
+        }
+        _channels.clear();
+    }
+}
@@ -0,0 +1,263 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the drivers of many SQL Server objects in one JVM on a shared
+ * scheduler. The number of drivers running at the same time is limited, and
+ * so are the connections the drivers use at the same time, in total and per
+ * database host. A driver waits for a permit before it borrows a connection
+ * and returns the permit with the connection, the idle connections in the
+ * pools are limited by the pool size of every server.
+ *
+ * On a JDK with virtual threads the drivers and their channel workers run on
+ * virtual threads, else the drivers run on a fixed pool of maxSources
+ * threads and the channel workers on a shared cached pool. The channel
+ * workers never wait for other tasks, so the shared pools can not dead lock.
+ *
+ * The drivers have to be initialized before they are run.
+ */
+public final class DriverOrchestrator implements AutoCloseable {
+
+    private static final Logger LOG = Logger.getLogger(DriverOrchestrator.class.getName());
+    private static final long MAX_WAIT = Long.MAX_VALUE / 4;
+
+    private final int _maxSources;
+    private final Semaphore _sources;
+    private final ExecutorService _sourcePool;
+    private final ExecutorService _workerPool;
+    private final Limiter _limiter;
+    private final boolean _virtual;
+
+    /**
+     * @param maxSources drivers which run at the same time
+     * @param maxConnections connections in use at the same time by all
+     * drivers, 0 for no limit
+     * @param maxConnectionsPerHost connections in use at the same time per
+     * database host, 0 for no limit
+     */
+    public DriverOrchestrator(int maxSources, int maxConnections, int maxConnectionsPerHost) {
+        _maxSources = Math.max(1, maxSources);
+        _limiter = new Limiter(maxConnections, maxConnectionsPerHost);
+        ExecutorService virtual = newVirtualThreadExecutor();
+        _virtual = virtual != null;
+        if (_virtual) {
+            _sources = new Semaphore(_maxSources, true);
+            _sourcePool = virtual;
+            _workerPool = virtual;
+        } else {
+            _sources = null;
+            _sourcePool = Executors.newFixedThreadPool(_maxSources, new NamedThreadFactory("SQLDriver-source"));
+            _workerPool = Executors.newCachedThreadPool(new NamedThreadFactory("SQLDriver-worker"));
+        }
+        LOG.log(Level.INFO, "Orchestrator with {0} sources, {1} connections, {2} per host, virtual threads: {3}",
+                new Object[]{_maxSources, maxConnections, maxConnectionsPerHost, _virtual});
+    }
+
+    /**
+     * @return true if the drivers run on virtual threads
+     */
+    public boolean isVirtual() {
+        return _virtual;
+    }
+
+    /**
+     * Runs the drivers and waits until all of them are done. The error of a
+     * driver is logged and does not stop the others.
+     *
+     * @param drivers initialized drivers
+     * @throws InterruptedException if the caller was interrupted while
+     * waiting, the running drivers are not stopped
+     */
+    public void run(List<? extends SQLDriverAbstract> drivers) throws InterruptedException {
+        List<Future<?>> runs = new ArrayList<>(drivers.size());
+        for (final SQLDriverAbstract driver : drivers) {
+            runs.add(_sourcePool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    runDriver(driver);
+                }
+            }));
+        }
+        for (Future<?> run : runs) {
+            try {
+                run.get();
+            } catch (ExecutionException ex) {
+                LOG.log(Level.SEVERE, "Driver run failed", ex.getCause());
+            }
+        }
+    }
+
+    private void runDriver(SQLDriverAbstract driver) {
+        boolean permit = false;
+        try {
+            if (_sources != null) {
+                _sources.acquire();
+                permit = true;
+            }
+            driver.setScheduler(_workerPool, _limiter);
+            driver.run();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            driver.setScheduler(null, null);
+            if (permit) {
+                _sources.release();
+            }
+        }
+    }
+
+    /**
+     * Stops the shared threads after the running drivers are done.
+     */
+    @Override
+    public void close() {
+        _sourcePool.shutdown();
+        _workerPool.shutdown();
+    }
+
+    /**
+     * Creates an executor which starts a virtual thread per task, looked up
+     * by reflection because the driver is built for Java 8.
+     *
+     * @return the executor, null if the JDK has no virtual threads
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (NoSuchMethodException ex) {
+            return null;
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            LOG.log(Level.WARNING, "Virtual threads are not available, use platform threads", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Limits the connections in use, in total and per database host. A
+     * driver takes a permit before it borrows a connection and returns it
+     * when the connection goes back to the pool.
+     */
+    static final class Limiter {
+
+        private final Semaphore _total;
+        private final int _perHost;
+        private final Map<String, Semaphore> _hosts = new ConcurrentHashMap<>();
+
+        /**
+         * @param total connections of all hosts, 0 for no limit
+         * @param perHost connections per host, 0 for no limit
+         */
+        Limiter(int total, int perHost) {
+            _total = total > 0 ? new Semaphore(total, true) : null;
+            _perHost = perHost;
+        }
+
+        /**
+         * Takes a permit for a host.
+         *
+         * @param host host and port of the database server
+         * @param timeout maximum wait in milliseconds
+         * @return false if no permit was free within the timeout
+         * @throws InterruptedException
+         */
+        boolean acquire(String host, long timeout) throws InterruptedException {
+            timeout = Math.min(timeout, MAX_WAIT);
+            long end = System.currentTimeMillis() + timeout;
+            Semaphore hostPermits = getHost(host);
+            if (hostPermits != null && !hostPermits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+            long left = Math.max(0, end - System.currentTimeMillis());
+            if (_total != null && !_total.tryAcquire(left, TimeUnit.MILLISECONDS)) {
+                if (hostPermits != null) {
+                    hostPermits.release();
+                }
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Returns a permit taken with acquire().
+         *
+         * @param host host and port of the database server
+         */
+        void release(String host) {
+            if (_total != null) {
+                _total.release();
+            }
+            Semaphore hostPermits = getHost(host);
+            if (hostPermits != null) {
+                hostPermits.release();
+            }
+        }
+
+        private Semaphore getHost(String host) {
+            if (_perHost <= 0) {
+                return null;
+            }
+            Semaphore permits = _hosts.get(host);
+            if (permits == null) {
+                Semaphore created = new Semaphore(_perHost, true);
+                permits = _hosts.putIfAbsent(host, created);
+                if (permits == null) {
+                    permits = created;
+                }
+            }
+            return permits;
+        }
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+
+        private final String _prefix;
+        private final AtomicInteger _count = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            _prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, _prefix + "-" + _count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
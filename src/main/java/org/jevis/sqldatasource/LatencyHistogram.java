@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of durations. The buckets grow in powers of two
+ * starting at one microsecond, so a percentile is accurate to a factor of two
+ * which is enough to tell a slow channel from a fast one.
+ */
+final class LatencyHistogram {
+
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray _buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong _count = new AtomicLong();
+    private final AtomicLong _sum = new AtomicLong();
+    private final AtomicLong _max = new AtomicLong();
+
+    /**
+     * @param nanos duration in nanoseconds
+     */
+    void record(long nanos) {
+        long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        _buckets.incrementAndGet(bucket);
+        _count.incrementAndGet();
+        _sum.addAndGet(nanos);
+        long max;
+        while ((max = _max.get()) < nanos && !_max.compareAndSet(max, nanos)) {
+        }
+    }
+
+    long getCount() {
+        return _count.get();
+    }
+
+    /**
+     * @param percentile between 0 and 1
+     * @return upper bound of the bucket which holds the percentile in
+     * milliseconds, 0 if nothing was recorded
+     */
+    double getPercentile(double percentile) {
+        long count = _count.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += _buckets.get(i);
+            if (seen >= rank) {
+                return Math.min((1l << i) / 1000d, getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * @return mean in milliseconds
+     */
+    double getMean() {
+        long count = _count.get();
+        return count > 0 ? _sum.get() / (double) count / 1000000d : 0;
+    }
+
+    /**
+     * @return maximum in milliseconds
+     */
+    double getMax() {
+        return _max.get() / 1000000d;
+    }
+
+    LatencySummary summarize() {
+        return new LatencySummary(getCount(), getMean(), getPercentile(0.5), getPercentile(0.9),
+                getPercentile(0.99), getMax());
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.jevis.commons.driver.Result;
+
+/**
+ * One stage of the pipelined channel mode. The stage runs in its own thread
+ * and takes its input from a bounded queue, so a producer which is faster
+ * than the stage blocks in put() instead of filling the memory.
+ *
+ * If the stage fails it stops, the next put() or finish() of the producer
+ * throws the error.
+ *
+ * @param <T> input of the stage
+ */
+abstract class PipelineStage<T> {
+
+    private static final Object END = new Object();
+    private static final long POLL_INTERVAL = 100;
+
+    private final BlockingQueue<Object> _queue;
+    private final Thread _thread;
+    private volatile Throwable _error;
+    private volatile long _busy = 0;
+    private long _blocked = 0;
+
+    /**
+     * @param name name of the stage thread
+     * @param capacity number of items which can wait in the queue
+     */
+    PipelineStage(String name, int capacity) {
+        _queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        _thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                work();
+            }
+        }, name);
+        _thread.setDaemon(true);
+    }
+
+    /**
+     * Processes one item in the stage thread.
+     *
+     * @param item the item
+     * @throws Exception stops the stage
+     */
+    abstract void process(T item) throws Exception;
+
+    void start() {
+        _thread.start();
+    }
+
+    /**
+     * Hands an item to the stage, blocks while the queue is full.
+     *
+     * @param item the item
+     * @throws IllegalStateException if the stage failed or the producer was
+     * interrupted
+     */
+    void put(T item) {
+        enqueue(item);
+    }
+
+    /**
+     * Waits until the stage processed all items.
+     *
+     * @throws IllegalStateException if the stage failed
+     */
+    void finish() {
+        enqueue(END);
+        try {
+            _thread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + _thread.getName(), ex);
+        }
+        checkError();
+    }
+
+    /**
+     * Stops the stage without processing the remaining items, used when
+     * the producer failed.
+     */
+    void abort() {
+        _queue.clear();
+        _thread.interrupt();
+        try {
+            _thread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return nanoseconds the stage thread spent processing items
+     */
+    long getBusyTime() {
+        return _busy;
+    }
+
+    /**
+     * @return nanoseconds the producer was blocked by a full queue
+     */
+    long getBlockedTime() {
+        return _blocked;
+    }
+
+    private void enqueue(Object item) {
+        long start = System.nanoTime();
+        try {
+            while (!_queue.offer(item, POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+                checkError();
+                if (!_thread.isAlive()) {
+                    throw new IllegalStateException(_thread.getName() + " is not running");
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + _thread.getName(), ex);
+        } finally {
+            _blocked += System.nanoTime() - start;
+        }
+        checkError();
+    }
+
+    private void checkError() {
+        if (_error != null) {
+            throw new IllegalStateException(_thread.getName() + " failed", _error);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void work() {
+        try {
+            while (true) {
+                Object item = _queue.take();
+                if (item == END) {
+                    return;
+                }
+                long start = System.nanoTime();
+                process((T) item);
+                _busy += System.nanoTime() - start;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable ex) {
+            _error = ex;
+            _queue.clear();
+        }
+    }
+
+    /**
+     * Decodes captured rows into the buffers of the decoder targets.
+     */
+    static class DecodeStage extends PipelineStage<Object[][]> {
+
+        private final RowDecoder _decoder;
+
+        DecodeStage(String name, int capacity, RowDecoder decoder) {
+            super(name, capacity);
+            _decoder = decoder;
+        }
+
+        @Override
+        void process(Object[][] rows) {
+            for (Object[] row : rows) {
+                _decoder.decode(row);
+            }
+        }
+    }
+
+    /**
+     * Hands the batches of a ResultBuffer to the importer in its own thread.
+     */
+    static class ImportStage extends PipelineStage<List<Result>> implements ResultBuffer.Sink {
+
+        private final ResultBuffer.Sink _sink;
+
+        ImportStage(String name, int capacity, ResultBuffer.Sink sink) {
+            super(name, capacity);
+            _sink = sink;
+        }
+
+        @Override
+        public void importResults(List<Result> results) {
+            put(results);
+        }
+
+        @Override
+        void process(List<Result> results) {
+            _sink.importResults(results);
+        }
+    }
+}
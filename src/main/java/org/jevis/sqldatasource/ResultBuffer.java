@@ -0,0 +1,271 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.jevis.commons.driver.Result;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * Collects the results of one channel. With a batch size greater than zero
+ * the buffer is handed to the importer as soon as it is full, so the memory
+ * used by a channel does not grow with the number of rows in the result set.
+ * The newest timestamp is tracked for all results that went through the
+ * buffer.
+ *
+ * The samples are kept in a SampleColumn per target and only turned into
+ * Results when a batch is handed to the sink. A batch contains the samples
+ * of one target after another, each target in the order they were added.
+ */
+class ResultBuffer {
+
+    /**
+     * Receives the full batches of the buffer.
+     */
+    interface Sink {
+
+        void importResults(List<Result> results);
+    }
+
+    private final Sink _sink;
+    private final int _batchSize;
+    private final DedupIndex _dedup;
+    private final List<SampleColumn> _columns = new ArrayList<>();
+    private SampleColumn _lastColumn;
+    private int _size = 0;
+    private long _suppressed = 0;
+    private long _latest;
+    private DateTimeZone _latestZone;
+    private Watermark _watermark;
+    private long _count = 0;
+    private long _rows = 0;
+    private long _rejected = 0;
+    private long _bytes = 0;
+
+    /**
+     * @param sink receives the batches
+     * @param batchSize maximum results kept in memory, 0 to keep all results
+     * until flush() is called
+     */
+    ResultBuffer(Sink sink, int batchSize) {
+        this(sink, batchSize, null);
+    }
+
+    /**
+     * @param sink receives the batches
+     * @param batchSize maximum results kept in memory, 0 to keep all results
+     * until flush() is called
+     * @param dedup index of already imported samples, null to import all
+     * results. The buffer only reads the index, the sink has to record the
+     * batches once they are imported.
+     */
+    ResultBuffer(Sink sink, int batchSize, DedupIndex dedup) {
+        _sink = sink;
+        _dedup = dedup;
+        _batchSize = batchSize > 0 ? batchSize : 0;
+    }
+
+    void add(Result result) {
+        long timestamp = result.getDate().getMillis();
+        Object value = result.getValue();
+        SampleColumn column = getColumn(result.getOnlineID(), result.getAttribute(),
+                SampleColumn.typeOf(value), result.getDate().getZone());
+        add(column, timestamp, value);
+    }
+
+    /**
+     * Returns the column of a target, which is created on first use. The
+     * column stays valid for the lifetime of the buffer.
+     *
+     * @param onlineID ID of the target object
+     * @param attribute name of the target attribute
+     * @param type type of the values
+     * @param zone zone of the timestamps
+     * @return the column
+     */
+    SampleColumn getColumn(long onlineID, String attribute, RowDecoder.ValueType type, DateTimeZone zone) {
+        if (_lastColumn != null && _lastColumn.matches(onlineID, attribute, type, zone)) {
+            return _lastColumn;
+        }
+        for (SampleColumn column : _columns) {
+            if (column.matches(onlineID, attribute, type, zone)) {
+                _lastColumn = column;
+                return column;
+            }
+        }
+        _lastColumn = new SampleColumn(onlineID, attribute, type, zone);
+        _columns.add(_lastColumn);
+        return _lastColumn;
+    }
+
+    /**
+     * Adds a sample to a column of this buffer.
+     *
+     * @param column column from getColumn()
+     * @param timestamp timestamp in milliseconds
+     * @param value the value
+     */
+    void add(SampleColumn column, long timestamp, double value) {
+        if (isDuplicate(column, timestamp, DedupIndex.hash(value))) {
+            return;
+        }
+        column.add(timestamp, value);
+        added(column, timestamp);
+    }
+
+    void add(SampleColumn column, long timestamp, long value) {
+        if (isDuplicate(column, timestamp, DedupIndex.hash(value))) {
+            return;
+        }
+        column.add(timestamp, value);
+        added(column, timestamp);
+    }
+
+    void add(SampleColumn column, long timestamp, Object value) {
+        if (isDuplicate(column, timestamp, DedupIndex.hash(value))) {
+            return;
+        }
+        column.add(timestamp, value);
+        added(column, timestamp);
+    }
+
+    private boolean isDuplicate(SampleColumn column, long timestamp, int valueHash) {
+        if (_dedup != null && _dedup.contains(column.getOnlineID(), column.getAttribute(), timestamp, valueHash)) {
+            _suppressed++;
+            return true;
+        }
+        return false;
+    }
+
+    private void added(SampleColumn column, long timestamp) {
+        _size++;
+        _count++;
+        if (_latestZone == null || timestamp > _latest) {
+            _latest = timestamp;
+            _latestZone = column.getZone();
+        }
+        if (_batchSize > 0 && _size >= _batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Records the position of a row which produced results, used by channels
+     * with an ID column.
+     *
+     * @param timestamp newest timestamp of the row
+     * @param id value of the ID column
+     */
+    void mark(DateTime timestamp, String id) {
+        Watermark watermark = new Watermark(timestamp, id);
+        if (_watermark == null || watermark.compareTo(_watermark) > 0) {
+            _watermark = watermark;
+        }
+    }
+
+    /**
+     * Hands all buffered results to the sink.
+     */
+    void flush() {
+        if (_size == 0) {
+            return;
+        }
+        List<Result> batch = new ArrayList<>(_size);
+        for (SampleColumn column : _columns) {
+            column.drainTo(batch);
+        }
+        _size = 0;
+        _sink.importResults(batch);
+    }
+
+    /**
+     * @return the newest timestamp of all added results or null if there
+     * were none
+     */
+    DateTime getLatest() {
+        return _latestZone != null ? new DateTime(_latest, _latestZone) : null;
+    }
+
+    /**
+     * @return the newest marked row, else the newest timestamp without ID,
+     * null if there were no results
+     */
+    Watermark getWatermark() {
+        if (_watermark != null) {
+            return _watermark;
+        }
+        return _latestZone != null ? new Watermark(getLatest(), null) : null;
+    }
+
+    /**
+     * @return number of results which were dropped as already imported
+     */
+    long getSuppressed() {
+        return _suppressed;
+    }
+
+    /**
+     * @return number of results added since the buffer was created
+     */
+    long getCount() {
+        return _count;
+    }
+
+    /**
+     * Counts a row which was decoded for the targets of this buffer.
+     *
+     * @param bytes estimated size of the columns read from the row
+     */
+    void addRow(long bytes) {
+        _rows++;
+        _bytes += bytes;
+    }
+
+    /**
+     * Counts a value for a target of this buffer which could not be decoded.
+     */
+    void addRejected() {
+        _rejected++;
+    }
+
+    /**
+     * @return number of rows decoded for the targets of this buffer
+     */
+    long getRows() {
+        return _rows;
+    }
+
+    /**
+     * @return number of values of this buffer which could not be decoded
+     */
+    long getRejected() {
+        return _rejected;
+    }
+
+    /**
+     * @return estimated size of the rows decoded for this buffer in bytes
+     */
+    long getBytes() {
+        return _bytes;
+    }
+}
@@ -0,0 +1,749 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * Decoding plan for the rows of one query. The value and timestamp types of
+ * the targets are checked when the decoder is created, the columns are
+ * resolved by index once the ResultSetMetaData is known. Timestamps are
+ * decoded by a TimestampDecoder in the time zone of the server. Targets which share
+ * a column and type share one column reader, so every column is read only
+ * once per row.
+ *
+ * For the pipelined mode a row can also be captured as raw values with
+ * capture() and decoded later, in another thread, with decode(Object[],
+ * ResultBuffer).
+ *
+ * Channels which share one query add their targets with their own buffer,
+ * the results of a target go to the buffer of its channel.
+ *
+ * The values are read unboxed and added to the SampleColumn of the target in
+ * its buffer, no Result is created while decoding.
+ *
+ * Long tables with one row per meter and timestamp are routed by a key
+ * column. A target with a key only decodes the rows with its key, which are
+ * found with a hash lookup per row. Targets without a key decode every row.
+ */
+class RowDecoder {
+
+    /**
+     * Supported types of the 'Value Type' attribute.
+     */
+    enum ValueType {
+
+        DOUBLE {
+            @Override
+            Object read(ResultSet rs, int column) throws SQLException {
+                return rs.getDouble(column);
+            }
+        },
+        FLOAT {
+            @Override
+            Object read(ResultSet rs, int column) throws SQLException {
+                return rs.getFloat(column);
+            }
+        },
+        LONG {
+            @Override
+            Object read(ResultSet rs, int column) throws SQLException {
+                return rs.getLong(column);
+            }
+        },
+        INT {
+            @Override
+            Object read(ResultSet rs, int column) throws SQLException {
+                return rs.getInt(column);
+            }
+        },
+        STRING {
+            @Override
+            Object read(ResultSet rs, int column) throws SQLException {
+                return rs.getString(column);
+            }
+        };
+
+        abstract Object read(ResultSet rs, int column) throws SQLException;
+
+        static ValueType parse(String type) {
+            if (type == null) {
+                throw new IllegalArgumentException("missing value type");
+            }
+            try {
+                return valueOf(type.trim().toUpperCase(Locale.ENGLISH));
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("unknown value type: " + type);
+            }
+        }
+    }
+
+    /**
+     * Reads one column of a row and keeps the value until the next row.
+     */
+    private abstract static class ColumnReader {
+
+        final int column;
+        int slot;
+        private long row = -1;
+
+        ColumnReader(int column) {
+            this.column = column;
+        }
+
+        void load(ResultSet rs, long currentRow) throws SQLException {
+            if (row != currentRow) {
+                read(rs);
+                row = currentRow;
+            }
+        }
+
+        abstract void read(ResultSet rs) throws SQLException;
+
+        abstract Object capture(ResultSet rs) throws SQLException;
+
+        /**
+         * @return estimated size of the loaded value in bytes
+         */
+        abstract int getWidth();
+    }
+
+    /**
+     * Keeps the value unboxed, as double for DOUBLE and FLOAT and as long for
+     * LONG and INT.
+     */
+    private static class ValueReader extends ColumnReader {
+
+        private final ValueType type;
+        private double number;
+        private long integer;
+        private Object text;
+
+        ValueReader(int column, ValueType type) {
+            super(column);
+            this.type = type;
+        }
+
+        @Override
+        void read(ResultSet rs) throws SQLException {
+            switch (type) {
+                case DOUBLE:
+                    number = rs.getDouble(column);
+                    break;
+                case FLOAT:
+                    number = rs.getFloat(column);
+                    break;
+                case LONG:
+                    integer = rs.getLong(column);
+                    break;
+                case INT:
+                    integer = rs.getInt(column);
+                    break;
+                default:
+                    text = type.read(rs, column);
+            }
+        }
+
+        @Override
+        Object capture(ResultSet rs) throws SQLException {
+            return type.read(rs, column);
+        }
+
+        @Override
+        int getWidth() {
+            switch (type) {
+                case DOUBLE:
+                case LONG:
+                    return 8;
+                case FLOAT:
+                case INT:
+                    return 4;
+                default:
+                    return text != null ? text.toString().length() : 0;
+            }
+        }
+
+        void addTo(ResultBuffer buffer, SampleColumn target, long timestamp) {
+            switch (type) {
+                case DOUBLE:
+                case FLOAT:
+                    buffer.add(target, timestamp, number);
+                    break;
+                case LONG:
+                case INT:
+                    buffer.add(target, timestamp, integer);
+                    break;
+                default:
+                    buffer.add(target, timestamp, text);
+            }
+        }
+    }
+
+    private static class DateReader extends ColumnReader {
+
+        private final TimestampDecoder reader;
+        private long millis;
+
+        DateReader(int column, TimestampDecoder reader) {
+            super(column);
+            this.reader = reader;
+        }
+
+        @Override
+        void read(ResultSet rs) throws SQLException {
+            millis = reader.readMillis(rs, column);
+        }
+
+        @Override
+        Object capture(ResultSet rs) throws SQLException {
+            return reader.capture(rs, column);
+        }
+
+        @Override
+        int getWidth() {
+            return 8;
+        }
+    }
+
+    private static class TargetDecoder {
+
+        private final Target target;
+        private final ValueType valueType;
+        private final TimestampDecoder timestampDecoder;
+        private final ResultBuffer buffer;
+        private ValueReader value;
+        private DateReader timestamp;
+        private ResultBuffer columnBuffer;
+        private SampleColumn column;
+
+        TargetDecoder(Target target, DateTimeZone zone, ResultBuffer buffer) {
+            this.target = target;
+            this.buffer = buffer;
+            this.valueType = ValueType.parse(target.getValueType());
+            this.timestampDecoder = TimestampDecoder.create(target.getTimestampType(), zone);
+        }
+
+        void load(ResultSet rs, long row) throws SQLException {
+            timestamp.load(rs, row);
+            value.load(rs, row);
+        }
+
+        /**
+         * Adds the sample loaded with load().
+         *
+         * @return the timestamp of the sample
+         */
+        long addTo(ResultBuffer out) {
+            value.addTo(out, getColumn(out), timestamp.millis);
+            return timestamp.millis;
+        }
+
+        long decodeTimestamp(Object[] row, long[] times, boolean[] decoded) {
+            int slot = timestamp.slot;
+            if (!decoded[slot]) {
+                times[slot] = timestamp.reader.decodeMillis(row[slot]);
+                decoded[slot] = true;
+            }
+            return times[slot];
+        }
+
+        void addTo(ResultBuffer out, Object[] row, long time) {
+            out.add(getColumn(out), time, row[value.slot]);
+        }
+
+        private SampleColumn getColumn(ResultBuffer out) {
+            if (out != columnBuffer) {
+                column = out.getColumn(target.getObjectID(), target.getAttributeName(), valueType,
+                        timestampDecoder.getZone());
+                columnBuffer = out;
+            }
+            return column;
+        }
+    }
+
+    private static final TargetDecoder[] NO_TARGETS = new TargetDecoder[0];
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final List<TargetDecoder> _decoders = new ArrayList<>();
+    private TargetDecoder[] _unrouted = NO_TARGETS;
+    private final Map<String, TargetDecoder[]> _routes = new HashMap<>();
+    private int _keyColumn = 0;
+    private long _unmatched = 0;
+    private final List<ColumnReader> _readers = new ArrayList<>();
+    private final List<ResultBuffer> _touched = new ArrayList<>();
+    private long[] _times;
+    private boolean[] _decoded;
+    private final List<String> _errors = new ArrayList<>();
+    private long _row = 0;
+    private int _idColumn = 0;
+    private long _rejected = 0;
+    private long _after = Long.MIN_VALUE;
+    private long _until = Long.MAX_VALUE;
+    private Exception _lastError;
+
+    private final DateTimeZone _zone;
+    private final DateTimeZone _dateZone;
+
+    /**
+     * Checks the types of the targets. Targets with an invalid configuration
+     * are left out and reported by getErrors().
+     *
+     * @param targets targets of the channel
+     * @param zone zone of local timestamps in the database, null for the
+     * default zone
+     */
+    RowDecoder(List<Target> targets, DateTimeZone zone) {
+        this(zone);
+        addTargets(targets, null);
+    }
+
+    /**
+     * Creates a decoder without targets, they are added with addTargets().
+     *
+     * @param zone zone of local timestamps in the database, null for the
+     * default zone
+     */
+    RowDecoder(DateTimeZone zone) {
+        _zone = zone;
+        _dateZone = zone != null ? zone : DateTimeZone.getDefault();
+    }
+
+    /**
+     * Drops the samples outside of a time range, used for the intervals of an
+     * aggregated query which were already imported or are not over yet.
+     *
+     * @param after samples at or before this timestamp in milliseconds are
+     * dropped
+     * @param until newest timestamp in milliseconds which is decoded
+     */
+    void setRange(long after, long until) {
+        _after = after;
+        _until = until;
+    }
+
+    /**
+     * Adds the targets of a channel. Has to be called before bind().
+     *
+     * @param targets targets of the channel
+     * @param buffer receives the results of these targets, null for the
+     * buffer passed to decode()
+     */
+    void addTargets(List<Target> targets, ResultBuffer buffer) {
+        for (Target target : targets) {
+            try {
+                _decoders.add(new TargetDecoder(target, _zone, buffer));
+            } catch (IllegalArgumentException ex) {
+                _errors.add(describe(target) + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Resolves the columns of all targets. Targets with a column which is not
+     * part of the result are left out and reported by getErrors().
+     *
+     * @param meta meta data of the result set
+     * @throws SQLException
+     */
+    void bind(ResultSetMetaData meta) throws SQLException {
+        bind(meta, null, null);
+    }
+
+    /**
+     * Resolves the columns of all targets and the ID column of the channel.
+     *
+     * @param meta meta data of the result set
+     * @param idColumn name of the ID column, null for none
+     * @throws SQLException
+     */
+    void bind(ResultSetMetaData meta, String idColumn) throws SQLException {
+        bind(meta, idColumn, null);
+    }
+
+    /**
+     * Resolves the columns of all targets, the ID column and the key column
+     * of the channel. With an ID column every row which produced results is
+     * marked in the buffer with its newest timestamp and ID. With a key
+     * column the rows are routed to the targets with the same key.
+     *
+     * @param meta meta data of the result set
+     * @param idColumn name of the ID column, null for none
+     * @param keyColumn name of the key column, null for none
+     * @throws SQLException
+     */
+    void bind(ResultSetMetaData meta, String idColumn, String keyColumn) throws SQLException {
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = meta.getColumnCount(); i >= 1; i--) {
+            columns.put(meta.getColumnLabel(i).toLowerCase(Locale.ENGLISH), i);
+            String name = meta.getColumnName(i);
+            if (name != null && !columns.containsKey(name.toLowerCase(Locale.ENGLISH))) {
+                columns.put(name.toLowerCase(Locale.ENGLISH), i);
+            }
+        }
+
+        Map<String, ValueReader> valueReaders = new HashMap<>();
+        Map<String, DateReader> dateReaders = new HashMap<>();
+        List<TargetDecoder> bound = new ArrayList<>();
+        for (TargetDecoder decoder : _decoders) {
+            Integer valueColumn = findColumn(columns, decoder.target.getValueColumn());
+            Integer timestampColumn = findColumn(columns, decoder.target.getTimestampColumn());
+            if (valueColumn == null) {
+                _errors.add(describe(decoder.target) + ": value column not found: " + decoder.target.getValueColumn());
+                continue;
+            }
+            if (timestampColumn == null) {
+                _errors.add(describe(decoder.target) + ": timestamp column not found: " + decoder.target.getTimestampColumn());
+                continue;
+            }
+
+            String valueKey = valueColumn + ":" + decoder.valueType;
+            ValueReader valueReader = valueReaders.get(valueKey);
+            if (valueReader == null) {
+                valueReader = new ValueReader(valueColumn, decoder.valueType);
+                valueReader.slot = _readers.size();
+                _readers.add(valueReader);
+                valueReaders.put(valueKey, valueReader);
+            }
+            String dateKey = timestampColumn + ":" + decoder.target.getTimestampType();
+            DateReader dateReader = dateReaders.get(dateKey);
+            if (dateReader == null) {
+                dateReader = new DateReader(timestampColumn, decoder.timestampDecoder);
+                dateReader.slot = _readers.size();
+                _readers.add(dateReader);
+                dateReaders.put(dateKey, dateReader);
+            }
+            decoder.value = valueReader;
+            decoder.timestamp = dateReader;
+            bound.add(decoder);
+        }
+        _decoders.clear();
+        _decoders.addAll(bound);
+
+        if (idColumn != null) {
+            Integer index = findColumn(columns, idColumn);
+            if (index == null) {
+                _errors.add("ID column not found: " + idColumn);
+            } else {
+                _idColumn = index;
+            }
+        }
+        bindRoutes(columns, keyColumn);
+        _times = new long[_readers.size()];
+        _decoded = new boolean[_readers.size()];
+    }
+
+    /**
+     * Builds the route of every key: the targets with this key and the
+     * targets without key, in the order in which they were added. Without a
+     * key column the keys of the targets are ignored.
+     */
+    private void bindRoutes(Map<String, Integer> columns, String keyColumn) {
+        Integer index = keyColumn != null ? findColumn(columns, keyColumn) : null;
+        if (keyColumn != null && index == null) {
+            _errors.add("key column not found: " + keyColumn);
+        }
+        List<TargetDecoder> unrouted = new ArrayList<>();
+        List<TargetDecoder> kept = new ArrayList<>();
+        Map<String, List<TargetDecoder>> routes = new HashMap<>();
+        for (TargetDecoder decoder : _decoders) {
+            String key = keyColumn != null ? decoder.target.getKey() : null;
+            if (key == null) {
+                unrouted.add(decoder);
+                kept.add(decoder);
+                for (List<TargetDecoder> route : routes.values()) {
+                    route.add(decoder);
+                }
+            } else if (index == null) {
+                _errors.add(describe(decoder.target) + ": key column not found, target is skipped");
+            } else {
+                kept.add(decoder);
+                List<TargetDecoder> route = routes.get(key);
+                if (route == null) {
+                    route = new ArrayList<>(unrouted);
+                    routes.put(key, route);
+                }
+                route.add(decoder);
+            }
+        }
+        _routes.clear();
+        for (Map.Entry<String, List<TargetDecoder>> route : routes.entrySet()) {
+            _routes.put(route.getKey(), route.getValue().toArray(NO_TARGETS));
+        }
+        _unrouted = unrouted.toArray(NO_TARGETS);
+        _decoders.clear();
+        _decoders.addAll(kept);
+        _keyColumn = index != null && !_routes.isEmpty() ? index : 0;
+    }
+
+    /**
+     * @return the targets for a key, the targets without key if no target
+     * has this key
+     */
+    private TargetDecoder[] route(Object key) {
+        if (_keyColumn == 0) {
+            return _unrouted;
+        }
+        TargetDecoder[] route = key != null ? _routes.get(key.toString().trim()) : null;
+        if (route == null) {
+            _unmatched++;
+            return _unrouted;
+        }
+        return route;
+    }
+
+    /**
+     * Decodes the current row of the result set for all targets.
+     *
+     * @param rs result set positioned on a row
+     * @param buffer receives the results
+     */
+    void decode(ResultSet rs, ResultBuffer buffer) {
+        _row++;
+        TargetDecoder[] targets;
+        try {
+            targets = route(_keyColumn > 0 ? rs.getString(_keyColumn) : null);
+        } catch (SQLException ex) {
+            _rejected++;
+            _lastError = ex;
+            return;
+        }
+        ResultBuffer current = null;
+        long newest = NONE;
+        for (TargetDecoder decoder : targets) {
+            ResultBuffer out = decoder.buffer != null ? decoder.buffer : buffer;
+            if (out != current) {
+                mark(current, newest, rs);
+                current = out;
+                newest = NONE;
+                _touched.add(out);
+            }
+            try {
+                decoder.load(rs, _row);
+            } catch (Exception ex) {
+                _rejected++;
+                out.addRejected();
+                _lastError = ex;
+                continue;
+            }
+            if (decoder.timestamp.millis <= _after || decoder.timestamp.millis > _until) {
+                continue;
+            }
+            newest = Math.max(newest, decoder.addTo(out));
+        }
+        mark(current, newest, rs);
+        long bytes = 0;
+        for (ColumnReader reader : _readers) {
+            if (reader.row == _row) {
+                bytes += reader.getWidth();
+            }
+        }
+        countRow(bytes);
+    }
+
+    /**
+     * Counts the current row in every buffer which received it, so channels
+     * which share a query only count the rows routed to their targets.
+     */
+    private void countRow(long bytes) {
+        for (ResultBuffer touched : _touched) {
+            touched.addRow(bytes);
+        }
+        _touched.clear();
+    }
+
+    /**
+     * Decodes the current row into the buffers given with addTargets().
+     *
+     * @param rs result set positioned on a row
+     */
+    void decode(ResultSet rs) {
+        decode(rs, null);
+    }
+
+    private void mark(ResultBuffer buffer, long newest, ResultSet rs) {
+        if (_idColumn > 0 && newest != NONE) {
+            try {
+                buffer.mark(new DateTime(newest, _dateZone), rs.getString(_idColumn));
+            } catch (SQLException ex) {
+                _lastError = ex;
+            }
+        }
+    }
+
+    /**
+     * Reads the columns of the current row which are needed by the targets,
+     * without decoding the timestamps.
+     *
+     * @param rs result set positioned on a row
+     * @return the raw values, followed by the ID and the key
+     * @throws SQLException
+     */
+    Object[] capture(ResultSet rs) throws SQLException {
+        int size = _readers.size();
+        Object[] row = new Object[size + 2];
+        for (int i = 0; i < size; i++) {
+            row[i] = _readers.get(i).capture(rs);
+        }
+        if (_idColumn > 0) {
+            row[size] = rs.getString(_idColumn);
+        }
+        if (_keyColumn > 0) {
+            row[size + 1] = rs.getString(_keyColumn);
+        }
+        return row;
+    }
+
+    /**
+     * Decodes a row captured with capture() for all targets. Not thread
+     * safe, all rows of a query have to be decoded by the same thread.
+     *
+     * @param row raw values of the row
+     * @param buffer receives the results
+     */
+    void decode(Object[] row, ResultBuffer buffer) {
+        _row++;
+        Arrays.fill(_decoded, false);
+        ResultBuffer current = null;
+        long newest = NONE;
+        for (TargetDecoder decoder : route(row[_readers.size() + 1])) {
+            ResultBuffer out = decoder.buffer != null ? decoder.buffer : buffer;
+            if (out != current) {
+                mark(current, newest, row);
+                current = out;
+                newest = NONE;
+                _touched.add(out);
+            }
+            long time;
+            try {
+                time = decoder.decodeTimestamp(row, _times, _decoded);
+            } catch (Exception ex) {
+                _rejected++;
+                out.addRejected();
+                _lastError = ex;
+                continue;
+            }
+            if (time <= _after || time > _until) {
+                continue;
+            }
+            decoder.addTo(out, row, time);
+            newest = Math.max(newest, time);
+        }
+        mark(current, newest, row);
+        long bytes = 0;
+        for (int i = 0; i < _readers.size(); i++) {
+            bytes += getWidth(row[i]);
+        }
+        countRow(bytes);
+    }
+
+    /**
+     * @return estimated size of a captured value in bytes
+     */
+    private static int getWidth(Object value) {
+        if (value == null) {
+            return 0;
+        } else if (value instanceof String) {
+            return ((String) value).length();
+        } else if (value instanceof Float || value instanceof Integer) {
+            return 4;
+        }
+        return 8;
+    }
+
+    /**
+     * Decodes a captured row into the buffers given with addTargets().
+     *
+     * @param row raw values of the row
+     */
+    void decode(Object[] row) {
+        decode(row, null);
+    }
+
+    private void mark(ResultBuffer buffer, long newest, Object[] row) {
+        if (_idColumn > 0 && newest != NONE) {
+            buffer.mark(new DateTime(newest, _dateZone), (String) row[_readers.size()]);
+        }
+    }
+
+    /**
+     * @return false if no target is left to decode
+     */
+    boolean hasTargets() {
+        return !_decoders.isEmpty();
+    }
+
+    /**
+     * @return configuration errors found while creating and binding the
+     * decoder
+     */
+    List<String> getErrors() {
+        return _errors;
+    }
+
+    /**
+     * @return number of rows whose key matched no target
+     */
+    long getUnmatched() {
+        return _unmatched;
+    }
+
+    /**
+     * @return number of values which could not be decoded
+     */
+    long getRejected() {
+        return _rejected;
+    }
+
+    /**
+     * @return the error of the last value which could not be decoded
+     */
+    Exception getLastError() {
+        return _lastError;
+    }
+
+    /**
+     * @return number of decoded rows
+     */
+    long getRows() {
+        return _row;
+    }
+
+    private static Integer findColumn(Map<String, Integer> columns, String column) {
+        if (column == null) {
+            return null;
+        }
+        return columns.get(column.trim().toLowerCase(Locale.ENGLISH));
+    }
+
+    private static String describe(Target target) {
+        return "Target " + target.getObjectID() + ":" + target.getAttributeName();
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Time budget of one run. When the budget is used up a watchdog thread
+ * cancels the statements which are still running, channels which did not
+ * start yet are skipped by the driver. The channels which were cut off are
+ * collected for the report at the end of the run.
+ */
+final class RunDeadline {
+
+    /**
+     * Deadline of runs without time budget, it never expires.
+     */
+    static final RunDeadline NONE = new RunDeadline();
+
+    private static final Logger LOG = Logger.getLogger(RunDeadline.class.getName());
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "SQLDriver-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final Set<Statement> _running = ConcurrentHashMap.newKeySet();
+    private final List<String> _cutOff = new ArrayList<>();
+    private final ScheduledFuture<?> _timer;
+    private volatile boolean _expired = false;
+
+    private RunDeadline() {
+        _timer = null;
+    }
+
+    private RunDeadline(long budget) {
+        _timer = WATCHDOG.schedule(new Runnable() {
+            @Override
+            public void run() {
+                expire();
+            }
+        }, budget, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts the budget of a run.
+     *
+     * @param budget time budget in milliseconds, 0 or less for none
+     * @return the deadline, has to be closed at the end of the run
+     */
+    static RunDeadline start(long budget) {
+        return budget > 0 ? new RunDeadline(budget) : NONE;
+    }
+
+    /**
+     * @return true if the budget is used up
+     */
+    boolean isExpired() {
+        return _expired;
+    }
+
+    /**
+     * @return milliseconds left of the budget, Long.MAX_VALUE without budget
+     */
+    long getRemaining() {
+        if (_timer == null) {
+            return Long.MAX_VALUE;
+        }
+        return _expired ? 0 : Math.max(0, _timer.getDelay(TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Adds a running statement, which is cancelled when the budget is used
+     * up. A statement added after that is cancelled at once.
+     *
+     * @param statement the statement
+     */
+    void register(Statement statement) {
+        if (_timer == null) {
+            return;
+        }
+        _running.add(statement);
+        if (_expired) {
+            cancel(statement);
+        }
+    }
+
+    void unregister(Statement statement) {
+        _running.remove(statement);
+    }
+
+    /**
+     * Records a channel which was cancelled or skipped because the budget
+     * was used up.
+     *
+     * @param channel name of the channel
+     */
+    synchronized void cutOff(String channel) {
+        _cutOff.add(channel);
+    }
+
+    synchronized List<String> getCutOff() {
+        return new ArrayList<>(_cutOff);
+    }
+
+    /**
+     * Stops the watchdog of the run.
+     */
+    void close() {
+        if (_timer != null) {
+            _timer.cancel(false);
+        }
+    }
+
+    private void expire() {
+        _expired = true;
+        for (Statement statement : _running) {
+            cancel(statement);
+        }
+    }
+
+    private static void cancel(Statement statement) {
+        try {
+            statement.cancel();
+        } catch (SQLException | RuntimeException ex) {
+            LOG.log(Level.FINE, "Statement could not be cancelled", ex);
+        }
+    }
+}
@@ -0,0 +1,316 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps JDBC connections open between driver runs. The pools are shared in
+ * the JVM and identified by the connection parameters of a SQL Server object,
+ * so a new driver instance for the same server reuses the connections of the
+ * previous run.
+ *
+ * Connections which were idle for longer than the validation interval are
+ * checked with Connection.isValid before they are handed out, connections
+ * which were idle longer than the idle timeout are closed.
+ *
+ * The pool uses a lock instead of a monitor, so virtual threads waiting for
+ * a connection do not pin their carrier thread.
+ */
+public class SQLConnectionPool {
+
+    private static final Logger LOG = Logger.getLogger(SQLConnectionPool.class.getName());
+    private static final Map<String, SQLConnectionPool> POOLS = new ConcurrentHashMap<>();
+    private static final long EVICTION_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+    private static final ScheduledExecutorService EVICTOR = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "SQLConnectionPool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static {
+        EVICTOR.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                for (SQLConnectionPool pool : POOLS.values()) {
+                    pool.evictIdle();
+                }
+            }
+        }, EVICTION_INTERVAL, EVICTION_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    public static final int DEFAULT_SIZE = 1;
+    public static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+    public static final long VALIDATION_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+    /**
+     * Opens a new physical connection for the pool.
+     */
+    public interface ConnectionFactory {
+
+        Connection create() throws ClassNotFoundException, SQLException;
+    }
+
+    private static class Entry {
+
+        private final Connection connection;
+        private long lastUsed;
+
+        Entry(Connection connection) {
+            this.connection = connection;
+            this.lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    private final String _key;
+    private final ReentrantLock _lock = new ReentrantLock();
+    private final Condition _available = _lock.newCondition();
+    private final Deque<Entry> _idle = new ArrayDeque<>();
+    private int _open = 0;
+    private int _maxSize = DEFAULT_SIZE;
+    private long _idleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+    private SQLConnectionPool(String key) {
+        _key = key;
+    }
+
+    /**
+     * Returns the pool for the given key and creates it if needed.
+     *
+     * @param key identifies the server, e.g. host, port, schema and user
+     * @return the shared pool
+     */
+    public static SQLConnectionPool getPool(String key) {
+        SQLConnectionPool pool = POOLS.get(key);
+        if (pool == null) {
+            SQLConnectionPool newPool = new SQLConnectionPool(key);
+            pool = POOLS.putIfAbsent(key, newPool);
+            if (pool == null) {
+                pool = newPool;
+            }
+        }
+        return pool;
+    }
+
+    public void setMaxSize(int maxSize) {
+        _lock.lock();
+        try {
+            _maxSize = Math.max(1, maxSize);
+            _available.signalAll();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    public int getMaxSize() {
+        _lock.lock();
+        try {
+            return _maxSize;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    public void setIdleTimeout(long idleTimeout) {
+        _lock.lock();
+        try {
+            _idleTimeout = idleTimeout;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Borrows a connection. An idle connection is reused if possible, else a
+     * new one is opened with the factory as long as the pool is not full.
+     * Otherwise the call blocks until a connection is released.
+     *
+     * @param factory opens a new connection if the pool has none left
+     * @return a connection which has to be returned with release()
+     * @throws ClassNotFoundException
+     * @throws SQLException
+     */
+    public Connection borrow(ConnectionFactory factory) throws ClassNotFoundException, SQLException {
+        while (true) {
+            Entry entry = null;
+            _lock.lock();
+            try {
+                while (_idle.isEmpty() && _open >= _maxSize) {
+                    try {
+                        _available.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for a connection", ex);
+                    }
+                }
+                if (!_idle.isEmpty()) {
+                    entry = _idle.pollFirst();
+                } else {
+                    _open++;
+                }
+            } finally {
+                _lock.unlock();
+            }
+
+            if (entry == null) {
+                try {
+                    Connection con = factory.create();
+                    if (con == null) {
+                        throw new SQLException("No connection was opened for " + _key);
+                    }
+                    return con;
+                } catch (ClassNotFoundException | SQLException | RuntimeException ex) {
+                    discarded();
+                    throw ex;
+                }
+            }
+
+            if (isUsable(entry)) {
+                return entry.connection;
+            }
+            close(entry.connection);
+            discarded();
+        }
+    }
+
+    /**
+     * Returns a connection to the pool. Closed connections and connections
+     * with an open transaction are dropped.
+     *
+     * @param con connection from borrow()
+     */
+    public void release(Connection con) {
+        if (con == null) {
+            return;
+        }
+        boolean reusable;
+        try {
+            reusable = !con.isClosed() && (con.getAutoCommit() || rollback(con));
+        } catch (SQLException ex) {
+            reusable = false;
+        }
+        if (!reusable) {
+            close(con);
+            discarded();
+            return;
+        }
+        _lock.lock();
+        try {
+            if (_open > _maxSize) {
+                _open--;
+                reusable = false;
+            } else {
+                _idle.addFirst(new Entry(con));
+            }
+            _available.signalAll();
+        } finally {
+            _lock.unlock();
+        }
+        if (!reusable) {
+            close(con);
+        }
+    }
+
+    /**
+     * Closes all connections which were idle longer than the idle timeout.
+     */
+    public void evictIdle() {
+        long now = System.currentTimeMillis();
+        Deque<Entry> expired = new ArrayDeque<>();
+        _lock.lock();
+        try {
+            Iterator<Entry> iter = _idle.iterator();
+            while (iter.hasNext()) {
+                Entry entry = iter.next();
+                if (now - entry.lastUsed > _idleTimeout) {
+                    iter.remove();
+                    expired.add(entry);
+                    _open--;
+                }
+            }
+            if (!expired.isEmpty()) {
+                _available.signalAll();
+            }
+        } finally {
+            _lock.unlock();
+        }
+        for (Entry entry : expired) {
+            close(entry.connection);
+        }
+        if (!expired.isEmpty()) {
+            LOG.log(Level.FINE, "Closed {0} idle connections of {1}", new Object[]{expired.size(), _key});
+        }
+    }
+
+    private boolean isUsable(Entry entry) {
+        if (System.currentTimeMillis() - entry.lastUsed < VALIDATION_INTERVAL) {
+            return true;
+        }
+        try {
+            return entry.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException | AbstractMethodError ex) {
+            return false;
+        }
+    }
+
+    private boolean rollback(Connection con) throws SQLException {
+        con.rollback();
+        con.setAutoCommit(true);
+        return true;
+    }
+
+    private void discarded() {
+        _lock.lock();
+        try {
+            _open--;
+            _available.signalAll();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private void close(Connection con) {
+        StatementCache.release(con);
+        try {
+            con.close();
+        } catch (Exception ex) {
+            LOG.log(Level.FINE, "Error while closing pooled connection", ex);
+        }
+    }
+}
@@ -18,23 +18,44 @@
  */
 package org.jevis.sqldatasource;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
 import java.sql.Time;
 import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.jevis.api.JEVisAttribute;
 import org.jevis.api.JEVisClass;
 import org.jevis.api.JEVisException;
 import org.jevis.api.JEVisObject;
-import org.jevis.api.JEVisSample;
 import org.jevis.api.JEVisType;
 import org.jevis.commons.DatabaseHelper;
 import org.jevis.commons.driver.DataCollectorTypes;
@@ -43,8 +64,10 @@ import org.jevis.commons.driver.Importer;
 import org.jevis.commons.driver.ImporterFactory;
 import org.jevis.commons.driver.Result;
 import org.jevis.sqldatasource.error.SQLDriverError;
+import org.jevis.sqldatasource.error.SQLDriverErrorBadRequest;
 import org.jevis.sqldatasource.error.SQLDriverErrorNotFound;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 
@@ -71,14 +94,55 @@ public abstract class SQLDriverAbstract implements DataSource {
     private Integer _connectionTimeout;
     private Integer _readTimeout;
     private String _timezone;
+    private DateTimeZone _zone;
     private Boolean _enabled;
     private String _domain;
+    private Integer _parallelChannels;
+    private Integer _poolSize;
+    private Integer _importBatchSize;
+    private Integer _configRefresh;
+    private Integer _dedupHorizon;
+    private Integer _pipelineQueue;
+    private Integer _runTimeout;
+    private Integer _statementCacheSize;
+    private String _checkpointJournal;
+    private Integer _checkpointInterval;
+    private String _spillDirectory;
+    private Integer _spillMaxSize;
 
     protected Connection _con;
     private JEVisObject _dataSource;
     private List<JEVisObject> _channels;
     private List<Result> _result;
     private Importer _importer;
+    private SQLConnectionPool _pool;
+    private ConfigSnapshot _snapshot;
+    private Map<Long, ChannelConfig> _configs;
+    private DedupIndex _dedup;
+    private DriverMetrics _metrics;
+    private CheckpointJournal _journal;
+    private SpillStore _spill;
+    private String _databaseProduct;
+    private volatile boolean _importFailed = false;
+    private volatile ExecutorService _workerPool;
+    private volatile DriverOrchestrator.Limiter _limiter;
+    private final Map<Connection, DriverOrchestrator.Limiter> _permits
+            = Collections.synchronizedMap(new IdentityHashMap<Connection, DriverOrchestrator.Limiter>());
+    private volatile RunDeadline _deadline = RunDeadline.NONE;
+    private final ReentrantLock _connectionLock = new ReentrantLock();
+    private final ReentrantLock _importLock = new ReentrantLock();
+    private static final int DEFAULT_STREAMING_FETCH_SIZE = 1000;
+    private static final int SAMPLED_ROWS = 16;
+    private static final int PIPELINE_CHUNK_ROWS = 256;
+    private static final int PIPELINE_BATCH_SIZE = 5000;
+    static final String CONDITION_LAST_READOUT = "lastreadout";
+    static final String CONDITION_WINDOW_END = "windowend";
+    /**
+     * Rows younger than this may still be written to the source, an empty
+     * read window only moves the Last Readout up to now minus this margin.
+     */
+    static final long WINDOW_SAFETY_MARGIN = TimeUnit.MINUTES.toMillis(5);
+    static final String CONDITION_LAST_ID = "lastid";
 
     interface SQLServer extends DataCollectorTypes.DataSource.DataServer {
 
@@ -87,6 +151,18 @@ public abstract class SQLDriverAbstract implements DataSource {
         public final static String SCHEMA = "Schema";
         public final static String USER = "User";
         public final static String DOMAIN = "Domain";
+        public final static String PARALLEL_CHANNELS = "Parallel Channels";
+        public final static String CONNECTION_POOL_SIZE = "Connection Pool Size";
+        public final static String IMPORT_BATCH_SIZE = "Import Batch Size";
+        public final static String CONFIG_REFRESH_INTERVAL = "Config Refresh Interval";
+        public final static String DEDUP_HORIZON = "Dedup Horizon";
+        public final static String PIPELINE_QUEUE_SIZE = "Pipeline Queue Size";
+        public final static String RUN_TIMEOUT = "Run Timeout";
+        public final static String STATEMENT_CACHE_SIZE = "Statement Cache Size";
+        public final static String CHECKPOINT_JOURNAL = "Checkpoint Journal";
+        public final static String CHECKPOINT_INTERVAL = "Checkpoint Interval";
+        public final static String SPILL_DIRECTORY = "Spill Directory";
+        public final static String SPILL_MAX_SIZE = "Spill Max Size";
     }
 
     interface SQLChannelDirectory extends DataCollectorTypes.ChannelDirectory {
@@ -99,6 +175,17 @@ public abstract class SQLDriverAbstract implements DataSource {
         public final static String NAME = "SQL Channel";
         public final static String LAST_READOUT = "Last Readout";
         public final static String QUERY = "Query";
+        public final static String FETCH_SIZE = "Fetch Size";
+        public final static String STREAMING = "Streaming";
+        public final static String READ_WINDOW = "Read Window";
+        public final static String COLUMN_ID = "Column ID";
+        public final static String PRECISE_WATERMARK = "Precise Watermark";
+        public final static String COLUMN_KEY = "Column Key";
+        public final static String TABLE = "Table";
+        public final static String COLUMN_TIMESTAMP = "Column Timestamp";
+        public final static String TIMESTAMP_FORMAT = "Timestamp Format";
+        public final static String PROBE_QUERY = "Probe Query";
+        public final static String CHANGE_PROBE = "Change Probe";
     }
 
     interface SQLDataPointDirectory extends DataCollectorTypes.DataPointDirectory {
@@ -115,6 +202,9 @@ public abstract class SQLDriverAbstract implements DataSource {
         public final static String TIMESTAMPTYPE = "Timestamp Type";
         public final static String VALUETYPE = "Value Type";
         public final static String VALUECOLUMN = "Value Column";
+        public final static String KEY = "ID";
+        public final static String AGGREGATION_INTERVAL = "Aggregation Interval";
+        public final static String AGGREGATION_FUNCTION = "Aggregation Function";
     }
 
     interface SQLVariableDirectory {
@@ -162,7 +252,25 @@ public abstract class SQLDriverAbstract implements DataSource {
             _connectionTimeout = DatabaseHelper.getObjectAsInteger(sqlObject, connectionTimeout);
             _readTimeout = DatabaseHelper.getObjectAsInteger(sqlObject, readTimeout);
             _timezone = DatabaseHelper.getObjectAsString(sqlObject, timezoneType);
+            try {
+                _zone = TimestampDecoder.parseZone(_timezone);
+            } catch (IllegalArgumentException ex) {
+                logMessage(Level.WARNING, "Unknown timezone '%s', use default", _timezone);
+                _zone = null;
+            }
             _enabled = DatabaseHelper.getObjectAsBoolean(sqlObject, enableType);
+            _parallelChannels = AttributeHelper.getInteger(sqlObject, SQLServer.PARALLEL_CHANNELS);
+            _poolSize = AttributeHelper.getInteger(sqlObject, SQLServer.CONNECTION_POOL_SIZE);
+            _importBatchSize = AttributeHelper.getInteger(sqlObject, SQLServer.IMPORT_BATCH_SIZE);
+            _configRefresh = AttributeHelper.getInteger(sqlObject, SQLServer.CONFIG_REFRESH_INTERVAL);
+            _dedupHorizon = AttributeHelper.getInteger(sqlObject, SQLServer.DEDUP_HORIZON);
+            _pipelineQueue = AttributeHelper.getInteger(sqlObject, SQLServer.PIPELINE_QUEUE_SIZE);
+            _runTimeout = AttributeHelper.getInteger(sqlObject, SQLServer.RUN_TIMEOUT);
+            _statementCacheSize = AttributeHelper.getInteger(sqlObject, SQLServer.STATEMENT_CACHE_SIZE);
+            _checkpointJournal = AttributeHelper.getString(sqlObject, SQLServer.CHECKPOINT_JOURNAL);
+            _checkpointInterval = AttributeHelper.getInteger(sqlObject, SQLServer.CHECKPOINT_INTERVAL);
+            _spillDirectory = AttributeHelper.getString(sqlObject, SQLServer.SPILL_DIRECTORY);
+            _spillMaxSize = AttributeHelper.getInteger(sqlObject, SQLServer.SPILL_MAX_SIZE);
         } catch (JEVisException ex) {
             logErrorMessage(Level.SEVERE, ex, "Error while initialize SQL Server");
         }
@@ -181,6 +289,70 @@ public abstract class SQLDriverAbstract implements DataSource {
         }
     }
 
+    /**
+     * Uses the configuration snapshot of the previous runs if a config
+     * refresh interval in minutes is set on the SQL Server.
+     */
+    private void initializeSnapshot() {
+        if (_configRefresh == null || _configRefresh <= 0 || _channels == null) {
+            ConfigSnapshot.invalidate(_id);
+            _snapshot = null;
+            return;
+        }
+        _snapshot = ConfigSnapshot.get(_id, TimeUnit.MINUTES.toMillis(_configRefresh));
+        List<Long> channelIDs = new ArrayList<>();
+        for (JEVisObject channel : _channels) {
+            channelIDs.add(channel.getID());
+        }
+        _snapshot.retain(channelIDs);
+    }
+
+    /**
+     * Opens the checkpoint journal if a journal file is set on the SQL
+     * Server. Checkpoints of a previous collector which were not written to
+     * JEVis are replayed from the file.
+     */
+    private void initializeJournal() {
+        if (_checkpointJournal == null || _checkpointJournal.trim().isEmpty()) {
+            CheckpointJournal.close(_id);
+            _journal = null;
+            return;
+        }
+        try {
+            _journal = CheckpointJournal.open(_id, new File(_checkpointJournal.trim()));
+            int pending = _journal.getPending().size();
+            if (pending > 0) {
+                logMessage(Level.INFO, "Checkpoint journal has %s Last Readouts not written to JEVis", pending);
+            }
+        } catch (IOException ex) {
+            logErrorMessage(Level.SEVERE, ex, "Error while opening checkpoint journal %s, write Last Readout to JEVis",
+                    _checkpointJournal);
+            _journal = null;
+        }
+    }
+
+    /**
+     * Opens the spill store if a spill directory is set on the SQL Server.
+     * Batches spilled by a previous collector are imported by the next run.
+     */
+    private void initializeSpill() {
+        if (_spillDirectory == null || _spillDirectory.trim().isEmpty()) {
+            SpillStore.close(_id);
+            _spill = null;
+            return;
+        }
+        try {
+            _spill = SpillStore.open(_id, new File(_spillDirectory.trim()));
+            if (_spill.hasPending()) {
+                logMessage(Level.INFO, "Spill store has %s bytes not imported into JEVis", _spill.getPendingBytes());
+            }
+        } catch (IOException ex) {
+            logErrorMessage(Level.SEVERE, ex, "Error while opening spill store %s, samples are not spilled",
+                    _spillDirectory);
+            _spill = null;
+        }
+    }
+
     private List<JEVisObject> getChannels(JEVisObject channelDir) throws JEVisException {
         ArrayList<JEVisObject> channels = new ArrayList<>();
         logMessage(Level.INFO, "ChannelDir: %s ", channelDir.getName());
@@ -227,6 +399,13 @@ public abstract class SQLDriverAbstract implements DataSource {
     }
 
 //    abstract protected String loadJDBC(String host, int port, String schema, String dbUser, String dbPW) throws ClassNotFoundException, SQLException;
+    /**
+     * Opens a new connection to the server and stores it in _con. The driver
+     * calls this only through the connection pool, subclasses should use
+     * borrowConnection() and releaseConnection() instead of keeping their own
+     * connection. The connection timeout is only applied if the connection
+     * is opened with getConnectionProperties().
+     */
     abstract protected String loadJDBC(String host, int port, String schema, String dbUser, String dbPW, String domain)
             throws ClassNotFoundException, SQLException;
 
@@ -244,23 +423,112 @@ public abstract class SQLDriverAbstract implements DataSource {
 
     }
 
-    private void setLastReadout(List<Result> results, JEVisObject channel) {
-        DateTime oldesSample = null;
-        for (Result result : results) {
-            if (oldesSample == null) {
-                oldesSample = result.getDate();
-            } else if (result.getDate().isAfter(oldesSample)) {
-                oldesSample = result.getDate();
+    /**
+     * Imports a batch into JEVis. With a spill store the batch is spilled to
+     * the disk instead if the import fails, if the importer fell behind the
+     * run timeout or if older spilled batches are still waiting, so the
+     * batches reach JEVis in the order they were read. A spilled batch counts
+     * as imported and the Last Readout moves on.
+     */
+    private void importResults(List<Result> results) {
+        _importLock.lock();
+        try {
+            if (_spill != null && (_importFailed || _spill.hasPending() || _deadline.isExpired())) {
+                spillResults(results);
+                return;
+            }
+            logMessage(Level.INFO, "Import %s samples", results.size());
+            try {
+                _importer.importResult(results);
+            } catch (RuntimeException ex) {
+                if (_spill == null) {
+                    throw ex;
+                }
+                logErrorMessage(Level.SEVERE, ex, "Import failed, spill the samples of this run to %s",
+                        _spillDirectory);
+                _importFailed = true;
+                spillResults(results);
             }
+        } finally {
+            _importLock.unlock();
+        }
+    }
+
+    private void spillResults(List<Result> results) {
+        try {
+            _spill.append(results);
+            logMessage(Level.INFO, "Spilled %s samples", results.size());
+        } catch (IOException ex) {
+            throw new IllegalStateException("Error while spilling " + results.size() + " samples", ex);
+        }
+    }
+
+    /**
+     * Imports the spilled batches in the order they were spilled until the
+     * store is empty, an import fails or the run timeout is reached. If the
+     * store still holds more than the spill max size in MB, the channels are
+     * not read in this run, their Last Readout stays and the rows are read
+     * when the backlog was imported.
+     *
+     * @return false if the channels must not be read in this run
+     */
+    private boolean drainSpill() {
+        if (_spill == null) {
+            return true;
         }
+        long samples = 0;
+        try {
+            List<Result> batch;
+            while (!_deadline.isExpired() && (batch = _spill.peek()) != null) {
+                _importLock.lock();
+                try {
+                    _importer.importResult(batch);
+                } finally {
+                    _importLock.unlock();
+                }
+                _spill.advance();
+                samples += batch.size();
+            }
+        } catch (IOException ex) {
+            logErrorMessage(Level.SEVERE, ex, "Error while reading spill store %s", _spillDirectory);
+        } catch (RuntimeException ex) {
+            logErrorMessage(Level.SEVERE, ex, "Import of spilled samples failed");
+            _importFailed = true;
+        }
+        if (samples > 0) {
+            logMessage(Level.INFO, "Imported %s spilled samples, %s bytes left", samples, _spill.getPendingBytes());
+        }
+        long limit = _spillMaxSize != null && _spillMaxSize > 0 ? _spillMaxSize * 1024L * 1024L : 0;
+        if (limit > 0 && _spill.getPendingBytes() >= limit) {
+            logMessage(Level.WARNING, "Spill store holds %s bytes, channels are read when it was imported",
+                    _spill.getPendingBytes());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Sets the Last Readout of a channel. With a checkpoint journal the value
+     * is only appended to the journal and written to JEVis by
+     * flushCheckpoints(), if the journal can not be written it goes to JEVis
+     * directly.
+     */
+    private void setLastReadout(Watermark oldesSample, JEVisObject channel, ChannelConfig config) {
         if (oldesSample != null) {
             try {
-                JEVisAttribute lastReadout = channel.getAttribute(SQLChannel.LAST_READOUT);
-                JEVisSample sample = lastReadout.getLatestSample();
-
-                String lts = DateTimeFormat.forPattern("yyyy-MM-dd HH:mm:ss").print(oldesSample);
-                lastReadout.buildSample(new DateTime(), lts).commit();
-                logMessage(Level.INFO, "Set LastReadout to: %s", lts);
+                String lts = oldesSample.format(config.isPreciseWatermark(), getZone());
+                if (_journal != null) {
+                    try {
+                        CheckpointJournal.Checkpoint checkpoint = _journal.get(channel.getID());
+                        String base = checkpoint != null ? checkpoint.getBase() : readLastReadoutText(channel);
+                        _journal.record(channel.getID(), base, lts);
+                        logMessage(Level.FINE, "Journal LastReadout: %s", lts);
+                        return;
+                    } catch (IOException ex) {
+                        logErrorMessage(Level.WARNING, ex, "Error while writing checkpoint journal");
+                    }
+                }
+                writeLastReadout(channel, lts);
 
             } catch (Exception ex) {
                 logErrorMessage(Level.SEVERE, ex, "Error while setting lastReadout: ", "");
@@ -269,117 +537,1108 @@ public abstract class SQLDriverAbstract implements DataSource {
 
     }
 
+    private void writeLastReadout(JEVisObject channel, String lts) throws JEVisException {
+        JEVisAttribute lastReadout = channel.getAttribute(SQLChannel.LAST_READOUT);
+        lastReadout.buildSample(new DateTime(), lts).commit();
+        logMessage(Level.INFO, "Set LastReadout to: %s", lts);
+    }
+
+    /**
+     * Writes the journaled Last Readouts to JEVis if the checkpoint interval
+     * in minutes is over, without interval on every run. A Last Readout which
+     * was changed in JEVis since the checkpoint is not overwritten.
+     */
+    private void flushCheckpoints() {
+        if (_journal == null) {
+            return;
+        }
+        try {
+            _journal.sync();
+            long interval = _checkpointInterval != null && _checkpointInterval > 0
+                    ? TimeUnit.MINUTES.toMillis(_checkpointInterval) : 0;
+            if (!_journal.isFlushDue(interval)) {
+                return;
+            }
+            Map<Long, JEVisObject> channels = new HashMap<>();
+            for (JEVisObject channel : _channels) {
+                channels.put(channel.getID(), channel);
+            }
+            Map<Long, String> written = new LinkedHashMap<>();
+            for (Map.Entry<Long, CheckpointJournal.Checkpoint> entry : _journal.getPending().entrySet()) {
+                JEVisObject channel = channels.get(entry.getKey());
+                String watermark = entry.getValue().getWatermark();
+                try {
+                    if (channel == null) {
+                        logMessage(Level.INFO, "Drop checkpoint of removed channel %s", entry.getKey());
+                    } else if (!entry.getValue().getBase().equals(readLastReadoutText(channel))) {
+                        logMessage(Level.INFO, "Channel %s: Last Readout was changed in JEVis, drop checkpoint %s",
+                                channel.getName(), watermark);
+                    } else {
+                        writeLastReadout(channel, watermark);
+                    }
+                    written.put(entry.getKey(), watermark);
+                } catch (JEVisException ex) {
+                    logErrorMessage(Level.SEVERE, ex, "Error while setting lastReadout of %s", channel.getName());
+                }
+            }
+            _journal.flushed(written);
+        } catch (IOException ex) {
+            logErrorMessage(Level.SEVERE, ex, "Error while flushing checkpoint journal");
+        }
+    }
+
     @Override
     public void initialize(JEVisObject sqlObject) {
         logMessage(Level.INFO, "initialize SQLDriverAbstract Version %s", "2016-08-02");
 
         _dataSource = sqlObject;
         initializeAttributes(sqlObject);
+        _metrics = DriverMetrics.get(_id, String.format("%s (%s:%s/%s)", _name, _host, _port, _schema));
         initializeChannelObjects(sqlObject);
-        _importer = ImporterFactory.getImporter(_dataSource);
+        initializeSnapshot();
+        initializeJournal();
+        initializeSpill();
+        if (_dedupHorizon != null && _dedupHorizon > 0) {
+            _dedup = DedupIndex.get(_id, TimeUnit.MINUTES.toMillis(_dedupHorizon));
+        } else {
+            DedupIndex.remove(_id);
+            _dedup = null;
+        }
+        _importer = createImporter(_dataSource);
         if (_importer != null) {
             _importer.initialize(_dataSource);
         }
     }
 
+    /**
+     * Runs the channel workers on a shared pool and limits the connections
+     * in use, set by the DriverOrchestrator for one run.
+     *
+     * @param workerPool pool of the channel workers, null for an own pool
+     * @param limiter permits for the connections, null for no limit
+     */
+    void setScheduler(ExecutorService workerPool, DriverOrchestrator.Limiter limiter) {
+        _workerPool = workerPool;
+        _limiter = limiter;
+    }
+
+    /**
+     * Creates the importer which writes the results into JEVis.
+     *
+     * @param dataSource SQL Server object
+     * @return the importer of the data source
+     */
+    protected Importer createImporter(JEVisObject dataSource) {
+        return ImporterFactory.getImporter(dataSource);
+    }
+
+    /**
+     * Runs all channels. With a run timeout in seconds on the SQL Server the
+     * statements still running at the end of the budget are cancelled and
+     * the channels which did not start are skipped, they are read in the
+     * next run. The channels which were cut off are logged at the end.
+     * Journaled checkpoints are written to JEVis at the end of the run.
+     * Spilled batches are imported before the channels are read.
+     */
     @Override
     public void run() {
+        int threads = _parallelChannels != null ? _parallelChannels : 1;
+        int workers = Math.max(1, Math.min(threads, _channels.size()));
+        _pool = SQLConnectionPool.getPool(getPoolKey());
+        _pool.setMaxSize(Math.max(workers, _poolSize != null ? _poolSize : SQLConnectionPool.DEFAULT_SIZE));
+        _deadline = RunDeadline.start(_runTimeout != null ? TimeUnit.SECONDS.toMillis(_runTimeout) : 0);
+        _importFailed = false;
         try {
-            String url = loadJDBC(_host, _port, _schema, _dbUser, _dbPW, _domain);
+            if (!drainSpill()) {
+                return;
+            }
+            List<JEVisObject> channels = probeChannels();
+            if (channels.isEmpty()) {
+                logMessage(Level.INFO, "No channel has new data");
+                return;
+            }
+            workers = Math.min(workers, channels.size());
+            if (workers > 1) {
+                runParallel(channels, workers);
+            } else {
+                runSequential(channels);
+            }
+        } finally {
+            flushCheckpoints();
+            _deadline.close();
+            List<String> cutOff = _deadline.getCutOff();
+            if (!cutOff.isEmpty()) {
+                logMessage(Level.WARNING, "Run timeout of %s s reached, %s channels cut off: %s",
+                        _runTimeout, cutOff.size(), cutOff);
+            }
+            _deadline = RunDeadline.NONE;
+        }
+    }
+
+    /**
+     * Skips a channel if the run timeout is reached.
+     *
+     * @return true if the channel was cut off
+     */
+    private boolean cutOff(JEVisObject channel) {
+        if (!_deadline.isExpired()) {
+            return false;
+        }
+        _deadline.cutOff(channel.getName());
+        _metrics.getChannel(channel).timeout();
+        return true;
+    }
+
+    /**
+     * Runs the change probes and returns the channels which have to be read.
+     * Channels without probe are always read, a failed probe reads the
+     * channel like it had none. The connection for the probes is only
+     * borrowed if a channel has a probe. A running probe is cancelled when
+     * the run timeout is reached, the channels after it are not probed and
+     * are cut off by the run.
+     *
+     * @return the channels with new data or without probe
+     */
+    private List<JEVisObject> probeChannels() {
+        List<JEVisObject> channels = new ArrayList<>();
+        Connection con = null;
+        try {
+            for (JEVisObject channel : _channels) {
+                try {
+                    ChangeProbe probe = _deadline.isExpired() ? null : ChangeProbe.create(channel, _zone);
+                    if (probe != null) {
+                        if (con == null) {
+                            con = borrowConnection();
+                        }
+                        Watermark from = getLastReadout(channel);
+                        if (!probe.hasChanges(con, from, _readTimeout != null ? _readTimeout : 0, _deadline)) {
+                            _metrics.getChannel(channel).skip();
+                            logMessage(Level.INFO, "Channel %s has no data after %s, skipped", channel.getName(), from);
+                            continue;
+                        }
+                    }
+                } catch (Exception ex) {
+                    logErrorMessage(_deadline.isExpired() ? Level.FINE : Level.WARNING, ex,
+                            "Change probe of channel %s failed", channel.getName());
+                }
+                channels.add(channel);
+            }
+        } finally {
+            if (con != null) {
+                releaseConnection(con);
+            }
+        }
+        return channels;
+    }
+
+    private void runSequential(List<JEVisObject> channels) {
+        prepareChannelConfigs(channels);
+        List<ChannelGroup> groups = groupChannels(channels);
+        try {
+            _con = borrowConnection();
         } catch (ClassNotFoundException | SQLException ex) {
             Logger.getLogger(
                     SQLDriverAbstract.class.getName()).log(Level.SEVERE, null, ex);
             return;
         }
-        for (JEVisObject channel : _channels) {
+        try {
+            for (ChannelGroup group : groups) {
+                processGroup(_con, group);
+            }
+        } finally {
+            releaseConnection(_con);
+            _con = null;
+        }
+    }
+
+    /**
+     * Runs the channels on a bounded pool of workers. Every worker borrows its
+     * own connection and takes channel groups from a shared queue until it is
+     * empty. Under a DriverOrchestrator the workers run on its shared pool.
+     * The import and the Last Readout commit are serialized because the
+     * importer and the JEVis data source are not thread safe. For the same
+     * reason the configurations and Last Readouts are read before the
+     * workers start.
+     *
+     * @param channels channels to read
+     * @param workers number of concurrent channel workers
+     */
+    private void runParallel(List<JEVisObject> channels, int workers) {
+        prepareChannelConfigs(channels);
+        List<ChannelGroup> groups = groupChannels(channels);
+        logMessage(Level.INFO, "Run %s channels in %s queries with %s workers", channels.size(), groups.size(), workers);
+        final Queue<ChannelGroup> pending = new ConcurrentLinkedQueue<>(groups);
+        ExecutorService shared = _workerPool;
+        ExecutorService executor = shared != null ? shared : Executors.newFixedThreadPool(workers);
+        List<Future<?>> running = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            running.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    if (pending.isEmpty()) {
+                        return;
+                    }
+                    Connection con;
+                    try {
+                        con = borrowConnection();
+                    } catch (ClassNotFoundException | SQLException ex) {
+                        logErrorMessage(Level.SEVERE, ex, "Error while connecting worker");
+                        return;
+                    }
+                    try {
+                        ChannelGroup group;
+                        while ((group = pending.poll()) != null) {
+                            processGroup(con, group);
+                        }
+                    } finally {
+                        releaseConnection(con);
+                    }
+                }
+            }));
+        }
+        if (shared == null) {
+            executor.shutdown();
+        }
+        for (Future<?> worker : running) {
             try {
-                _result = new ArrayList<Result>();
-                this.sendSampleRequest(channel);
-                if (_result != null && !_result.isEmpty()) {
-                    this.importResult();
-                    setLastReadout(_result, channel);
-                } else {
-                    logMessage(Level.INFO, "Nothing to import");
+                worker.get();
+            } catch (ExecutionException ex) {
+                logErrorMessage(Level.SEVERE, ex, "Channel worker failed");
+            } catch (InterruptedException ex) {
+                for (Future<?> other : running) {
+                    other.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Channels which run the same statement with the same parameters in this
+     * run. A group with one channel is read like an unshared channel.
+     */
+    private static final class ChannelGroup {
+
+        private final List<JEVisObject> _members = new ArrayList<>();
+        private final Watermark _from;
+        private final DateTime _to;
+
+        /**
+         * @param from Last Readout of the members, null if it is not known
+         * @param to end of the shared range, null for a group which is not
+         * shared
+         */
+        ChannelGroup(Watermark from, DateTime to) {
+            _from = from;
+            _to = to;
+        }
+    }
+
+    /**
+     * State of one channel while its query is read.
+     */
+    private static final class ChannelRead {
+
+        private final JEVisObject _channel;
+        private final ChannelMetrics.Run _run;
+        private ChannelConfig _config;
+        private ResultBuffer _buffer;
+        private PipelineStage.ImportStage _imports;
+
+        ChannelRead(JEVisObject channel, ChannelMetrics.Run run) {
+            _channel = channel;
+            _run = run;
+        }
+    }
+
+    /**
+     * Groups the channels whose query resolves to the same SQL text and the
+     * same parameter values, so the statement is executed once per group and
+     * the rows are decoded for the targets of all its channels. Channels
+     * which have to read a backlog in windows are never shared.
+     *
+     * @param channels channels to read
+     * @return the groups in the order of the channels
+     */
+    private List<ChannelGroup> groupChannels(List<JEVisObject> channels) {
+        DateTime now = new DateTime(getZone());
+        Map<String, ChannelGroup> shared = new HashMap<>();
+        List<ChannelGroup> groups = new ArrayList<>();
+        for (JEVisObject channel : channels) {
+            ChannelGroup group = null;
+            Watermark from = null;
+            try {
+                ChannelConfig config = getChannelConfig(channel);
+                from = getLastReadout(channel);
+                String key = getShareKey(config, from, now);
+                if (key != null) {
+                    group = shared.get(key);
+                    if (group == null) {
+                        group = new ChannelGroup(from, now);
+                        shared.put(key, group);
+                        groups.add(group);
+                    }
                 }
             } catch (Exception ex) {
-                logErrorMessage(Level.SEVERE, ex, "Error in channel: " + channel.getID() + " " + channel.getName());
+                logErrorMessage(Level.WARNING, ex, "Channel %s is not checked for a shared query", channel.getName());
+            }
+            if (group == null) {
+                group = new ChannelGroup(from, null);
+                groups.add(group);
+            }
+            group._members.add(channel);
+        }
+        for (ChannelGroup group : groups) {
+            if (group._members.size() > 1) {
+                List<String> names = new ArrayList<>();
+                for (JEVisObject channel : group._members) {
+                    names.add(channel.getName());
+                }
+                logMessage(Level.INFO, "Channels %s share one query", names);
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * @return the query and the values bound to its variables as text, null
+     * if the channel has to read its backlog in windows
+     */
+    private String getShareKey(ChannelConfig config, Watermark from, DateTime now) {
+        long window = TimeUnit.MINUTES.toMillis(config.getReadWindow());
+        if (window > 0 && now.getMillis() - from.getTimestamp().getMillis() > window) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder(config.getQuery());
+        key.append('\n').append(config.getFetchSize())
+                .append(';').append(config.isStreaming())
+                .append(';').append(config.isPreciseWatermark())
+                .append(';').append(config.usesKeyset() ? config.getIDColumn() : "")
+                .append(';').append(config.getKeyColumn());
+        if (config.getQuery().contains("?")) {
+            List<Variable> variables = new ArrayList<>(config.getVariables());
+            Collections.sort(variables, new Comparator<Variable>() {
+                @Override
+                public int compare(Variable o1, Variable o2) {
+                    return Integer.compare(o1.getPosition(), o2.getPosition());
+                }
+            });
+            for (Variable va : variables) {
+                key.append('\n').append(va.getPosition())
+                        .append(';').append(va.getVariableType())
+                        .append(';').append(getBoundValue(va, from, now, config.isPreciseWatermark()));
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return the value setVariable() binds for the variable, as text
+     */
+    private static String getBoundValue(Variable va, Watermark from, DateTime to, boolean precise) {
+        String condition = va.getCondition();
+        DateTime value;
+        if (CONDITION_LAST_READOUT.equalsIgnoreCase(condition)) {
+            value = from.getTimestamp();
+        } else if (CONDITION_WINDOW_END.equalsIgnoreCase(condition)) {
+            value = to;
+        } else if (CONDITION_LAST_ID.equalsIgnoreCase(condition)) {
+            return String.valueOf(from.getID());
+        } else {
+            return String.valueOf(condition);
+        }
+        return String.valueOf(precise ? value.getMillis() : value.withMillisOfSecond(0).getMillis());
+    }
+
+    /**
+     * Reads the channels of a group with one query. Every channel keeps its
+     * own buffer, metrics and Last Readout, a failed query fails all
+     * channels of the group.
+     *
+     * @param con connection used for the query
+     * @param group channels with the same query
+     */
+    private void processGroup(Connection con, ChannelGroup group) {
+        if (group._members.size() == 1) {
+            processChannel(con, group._members.get(0), group._from);
+            return;
+        }
+        List<ChannelRead> reads = new ArrayList<>();
+        for (JEVisObject channel : group._members) {
+            if (cutOff(channel)) {
+                continue;
+            }
+            reads.add(new ChannelRead(channel, _metrics.getChannel(channel).start()));
+        }
+        if (reads.isEmpty()) {
+            return;
+        }
+        boolean success = false;
+        try {
+            for (ChannelRead read : reads) {
+                read._config = getChannelConfig(read._channel);
+            }
+            readRange(con, reads, group._from, group._to);
+            for (ChannelRead read : reads) {
+                logSuppressed(read._channel, read._buffer.getSuppressed());
+                if (read._buffer.getCount() > 0) {
+                    commitLastReadout(read);
+                } else {
+                    logMessage(Level.INFO, "Nothing to import for channel %s", read._channel.getName());
+                }
+            }
+            success = true;
+        } catch (Exception ex) {
+            if (_deadline.isExpired()) {
+                for (ChannelRead read : reads) {
+                    cutOff(read._channel);
+                }
+                logErrorMessage(Level.FINE, ex, "Shared query cancelled");
+            } else {
+                logErrorMessage(Level.SEVERE, ex, "Error in shared query of %s channels", reads.size());
             }
+        } finally {
+            for (ChannelRead read : reads) {
+                finishRun(read, success);
+            }
+        }
+    }
+
+    /**
+     * Reads one channel and imports its results. With an import batch size
+     * the results are imported while the result set is read, the Last
+     * Readout is only moved after the whole channel was imported.
+     *
+     * If the channel has a read window and its Last Readout is older than one
+     * window, the range up to now is read window by window. Every window is
+     * imported and checkpointed into the Last Readout before the next one is
+     * queried. This needs a variable with the condition 'windowend' as upper
+     * bound in the query. The window ends are not aligned to the intervals of
+     * an aggregated channel, so its next window starts at the end of the
+     * last complete interval and the interval around the window end is
+     * aggregated from all of its rows.
+     *
+     * The time spent in every phase and the row counts are added to the
+     * metrics of the channel.
+     *
+     * @param con connection used for the query
+     * @param channel SQL Channel object
+     * @param lastReadout Last Readout read before the workers started, null
+     * to read it now
+     */
+    private void processChannel(Connection con, JEVisObject channel, Watermark lastReadout) {
+        if (cutOff(channel)) {
+            return;
         }
+        ChannelRead read = new ChannelRead(channel, _metrics.getChannel(channel).start());
+        boolean success = false;
         try {
-            if (_con != null) {
-                _con.close();
+            read._config = getChannelConfig(channel);
+            Watermark from = lastReadout != null ? lastReadout : getLastReadout(channel);
+            DateTime now = new DateTime(getZone());
+            long window = TimeUnit.MINUTES.toMillis(read._config.getReadWindow());
+            if (window > 0 && now.getMillis() - from.getTimestamp().getMillis() > window) {
+                if (read._config.hasCondition(CONDITION_WINDOW_END)) {
+                    readWindows(con, read, from, now, window);
+                    success = true;
+                    return;
+                }
+                logMessage(Level.WARNING, "Channel %s has a read window but no '%s' variable, read everything",
+                        channel.getName(), CONDITION_WINDOW_END);
+            }
+            readRange(con, Collections.singletonList(read), from, now);
+            logSuppressed(channel, read._buffer.getSuppressed());
+            if (read._buffer.getCount() > 0) {
+                commitLastReadout(read);
+            } else {
+                logMessage(Level.INFO, "Nothing to import");
             }
+            success = true;
         } catch (Exception ex) {
-            logMessage(Level.INFO, "Error while closing DB connection");
+            if (cutOff(channel)) {
+                logErrorMessage(Level.FINE, ex, "Channel %s cancelled", channel.getName());
+            } else {
+                logErrorMessage(Level.SEVERE, ex, "Error in channel: " + channel.getID() + " " + channel.getName());
+            }
+        } finally {
+            finishRun(read, success);
+        }
+    }
+
+    private void readWindows(Connection con, ChannelRead read, Watermark from, DateTime now, long window)
+            throws JEVisException, SQLException {
+        logMessage(Level.INFO, "Read channel %s from %s in windows of %s minutes",
+                read._channel.getName(), from, read._config.getReadWindow());
+        long suppressed = 0;
+        long safe = now.getMillis() - WINDOW_SAFETY_MARGIN;
+        boolean aggregated = read._config.isAggregated();
+        DateTime end = from.getTimestamp();
+        while (end.isBefore(now)) {
+            checkDeadline();
+            DateTime to = new DateTime(Math.min(end.getMillis() + window, now.getMillis()), getZone());
+            readRange(con, Collections.singletonList(read), from, to);
+            if (read._buffer.getCount() > 0) {
+                commitLastReadout(read);
+            } else if (!aggregated && Math.min(to.getMillis(), safe) > from.getTimestamp().getMillis()) {
+                // an empty or completely suppressed window is checkpointed too, else a gap is read again every run
+                commitLastReadout(read, new Watermark(new DateTime(Math.min(to.getMillis(), safe), getZone()), null));
+            }
+            logMessage(Level.INFO, "Window %s - %s: %s samples", from, to, read._buffer.getCount());
+            suppressed += read._buffer.getSuppressed();
+            end = to;
+            if (!aggregated) {
+                from = new Watermark(to, null);
+            } else if (read._buffer.getCount() > 0) {
+                // the interval around the window end is not complete yet, it is read again from its start
+                from = read._buffer.getWatermark();
+            }
+        }
+        logSuppressed(read._channel, suppressed);
+    }
+
+    private void logSuppressed(JEVisObject channel, long suppressed) {
+        if (suppressed > 0) {
+            logMessage(Level.INFO, "Channel %s: suppressed %s already imported samples", channel.getName(), suppressed);
+        }
+    }
+
+    private void commitLastReadout(ChannelRead read) throws JEVisException {
+        commitLastReadout(read, read._buffer.getWatermark());
+    }
+
+    private void commitLastReadout(ChannelRead read, Watermark watermark) throws JEVisException {
+        _importLock.lock();
+        try {
+            long start = System.nanoTime();
+            setLastReadout(watermark, read._channel, read._config);
+            read._run.add(ChannelMetrics.Phase.COMMIT, System.nanoTime() - start);
+        } finally {
+            _importLock.unlock();
+        }
+    }
+
+    private void finishRun(ChannelRead read, boolean success) {
+        read._run.finish(success);
+        logMessage(Level.INFO, "Channel %s: %s rows, %s samples imported in %.0f ms",
+                read._channel.getName(), read._run.getRows(), read._run.getImported(), read._run.getElapsed());
+    }
+
+    /**
+     * Queries a range for one channel or a group of channels with the same
+     * query and imports the results. Every channel gets a new buffer. With a
+     * pipeline queue size the rows are read, decoded and imported by
+     * separate threads connected by bounded queues, so the transfer from the
+     * database overlaps with the import into JEVis. All results are imported
+     * when this method returns.
+     *
+     * @param con connection used for the query
+     * @param reads channels which share the query, the first one provides
+     * the query and its settings
+     * @param from value for 'lastreadout' and 'lastid' variables
+     * @param to value for 'windowend' variables
+     */
+    private void readRange(Connection con, List<ChannelRead> reads, Watermark from, DateTime to)
+            throws JEVisException, SQLException {
+        int batchSize = _importBatchSize != null ? _importBatchSize : 0;
+        boolean pipelined = isPipelined();
+        boolean done = false;
+        try {
+            for (ChannelRead read : reads) {
+                ResultBuffer.Sink sink = createSink(read._run);
+                if (pipelined) {
+                    read._imports = new PipelineStage.ImportStage(
+                            "SQLDriver-import-" + read._channel.getID(), _pipelineQueue, sink);
+                    read._imports.start();
+                    sink = read._imports;
+                }
+                read._buffer = new ResultBuffer(sink,
+                        pipelined && batchSize == 0 ? PIPELINE_BATCH_SIZE : batchSize, _dedup);
+            }
+            queryChannel(con, reads.get(0)._config, from, to, reads, pipelined);
+            for (ChannelRead read : reads) {
+                read._buffer.flush();
+                if (read._imports != null) {
+                    read._imports.finish();
+                }
+            }
+            done = true;
+        } finally {
+            for (ChannelRead read : reads) {
+                if (!done && read._imports != null) {
+                    read._imports.abort();
+                }
+                read._imports = null;
+            }
+        }
+    }
+
+    private boolean isPipelined() {
+        return _pipelineQueue != null && _pipelineQueue > 0;
+    }
+
+    /**
+     * Creates the sink which imports the batches of one channel read. The
+     * batches are recorded in the dedup index only after the import returned,
+     * which in pipelined mode happens in the import stage and not when the
+     * batch is queued.
+     */
+    private ResultBuffer.Sink createSink(final ChannelMetrics.Run run) {
+        final DedupIndex dedup = _dedup;
+        return new ResultBuffer.Sink() {
+            @Override
+            public void importResults(List<Result> results) {
+                long start = System.nanoTime();
+                SQLDriverAbstract.this.importResults(results);
+                run.add(ChannelMetrics.Phase.IMPORT, System.nanoTime() - start);
+                run.addImported(results.size());
+                if (dedup != null) {
+                    dedup.record(results);
+                }
+            }
+        };
+    }
+
+    /**
+     * Borrows a connection from the pool of this server. A new connection is
+     * opened with loadJDBC if the pool has no idle one.
+     *
+     * @return connection which has to be returned with releaseConnection()
+     * @throws ClassNotFoundException
+     * @throws SQLException
+     */
+    protected Connection borrowConnection() throws ClassNotFoundException, SQLException {
+        if (_pool == null) {
+            _pool = SQLConnectionPool.getPool(getPoolKey());
+        }
+        DriverOrchestrator.Limiter limiter = acquirePermit();
+        try {
+            Connection con = _pool.borrow(new SQLConnectionPool.ConnectionFactory() {
+                @Override
+                public Connection create() throws ClassNotFoundException, SQLException {
+                    return openConnection();
+                }
+            });
+            if (limiter != null) {
+                _permits.put(con, limiter);
+            }
+            return con;
+        } catch (ClassNotFoundException | SQLException | RuntimeException ex) {
+            if (limiter != null) {
+                limiter.release(getHostKey());
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Waits for a connection permit of the orchestrator, at most until the
+     * run timeout is reached.
+     *
+     * @return the limiter the permit was taken from, null without limiter
+     * @throws SQLTimeoutException if no permit was free until the run timeout
+     */
+    private DriverOrchestrator.Limiter acquirePermit() throws SQLException {
+        DriverOrchestrator.Limiter limiter = _limiter;
+        if (limiter == null) {
+            return null;
+        }
+        try {
+            if (!limiter.acquire(getHostKey(), _deadline.getRemaining())) {
+                throw new SQLTimeoutException("No free connection for " + getHostKey() + " within the run timeout");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection to " + getHostKey(), ex);
+        }
+        return limiter;
+    }
+
+    /**
+     * Returns a borrowed connection to the pool so the next run can reuse it.
+     * The permit goes back to the limiter it was taken from, even if the
+     * orchestrator already ended the run.
+     *
+     * @param con connection from borrowConnection(), may be null
+     */
+    protected void releaseConnection(Connection con) {
+        if (con != null && _pool != null) {
+            // removed before the release, the pool may hand the connection out again at once
+            DriverOrchestrator.Limiter limiter = _permits.remove(con);
+            _pool.release(con);
+            if (limiter != null) {
+                limiter.release(getHostKey());
+            }
+        }
+    }
+
+    /**
+     * @return host and port of the database server, the key of the per host
+     * connection limit
+     */
+    String getHostKey() {
+        return _host + ":" + _port;
+    }
+
+    private String getPoolKey() {
+        return String.format("%s;%s;%s:%s/%s;%s;%s", getClassName(), _id, _host, _port, _schema, _domain, _dbUser);
+    }
+
+    /**
+     * Opens a new connection using the loadJDBC implementation of the
+     * subclass. The subclass stores the connection in _con, so this is done
+     * under a lock and _con is handed over to the caller.
+     *
+     * @return a connection owned by the caller
+     * @throws ClassNotFoundException
+     * @throws SQLException
+     */
+    private Connection openConnection() throws ClassNotFoundException, SQLException {
+        _connectionLock.lock();
+        try {
+            loadJDBC(_host, _port, _schema, _dbUser, _dbPW, _domain);
+            Connection con = _con;
+            _con = null;
+            return con;
+        } finally {
+            _connectionLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the properties for DriverManager.getConnection(url, properties)
+     * in loadJDBC(). Next to user and password they contain the connection
+     * timeout of the SQL Server, which only applies to this connection and
+     * not to the login timeout of the whole DriverManager.
+     *
+     * @param dbUser database user, may be null
+     * @param dbPW password of the user, may be null
+     * @return the connection properties
+     */
+    protected Properties getConnectionProperties(String dbUser, String dbPW) {
+        Properties properties = new Properties();
+        if (dbUser != null) {
+            properties.setProperty("user", dbUser);
+        }
+        if (dbPW != null) {
+            properties.setProperty("password", dbPW);
+        }
+        if (_connectionTimeout != null && _connectionTimeout > 0) {
+            setConnectionTimeout(properties, _connectionTimeout);
+        }
+        return properties;
+    }
+
+    /**
+     * Sets the connection timeout in the connection properties. The default
+     * implementation sets connectTimeout in milliseconds for MySQL/MariaDB
+     * servers and loginTimeout in seconds, which the MSSQL, jTDS and
+     * PostgreSQL drivers read, for all others. Subclasses can override this
+     * for their vendor.
+     *
+     * @param properties connection properties
+     * @param seconds connection timeout in seconds
+     */
+    protected void setConnectionTimeout(Properties properties, int seconds) {
+        String className = getClassName();
+        if (className != null && (className.contains("MySQL") || className.contains("MariaDB"))) {
+            properties.setProperty("connectTimeout", String.valueOf(TimeUnit.SECONDS.toMillis(seconds)));
+        } else {
+            properties.setProperty("loginTimeout", String.valueOf(seconds));
         }
     }
 
     @Override
     public List<InputStream> sendSampleRequest(JEVisObject channel) {
+        _result = new ArrayList<>();
+        ResultBuffer buffer = new ResultBuffer(new ResultBuffer.Sink() {
+            @Override
+            public void importResults(List<Result> results) {
+                _result.addAll(results);
+            }
+        }, 0);
+        readChannel(_con, channel, buffer);
+        buffer.flush();
+        return null;
+    }
+
+    private void readChannel(Connection con, JEVisObject channel, ResultBuffer buffer) {
+        ChannelRead read = new ChannelRead(channel, _metrics.getChannel(channel).start());
+        read._buffer = buffer;
+        boolean success = false;
         try {
-            JEVisClass channelClass = channel.getJEVisClass();
-            JEVisType last_readoutType = channelClass.getType(SQLChannel.LAST_READOUT);
-            JEVisType queryType = channelClass.getType(SQLChannel.QUERY);
-            String last_readout = DatabaseHelper.getObjectAsString(channel, last_readoutType);
-            String query = DatabaseHelper.getObjectAsString(channel, queryType);
-            List<JEVisObject> variables;
-            variables = getVariables(channel);
-            logMessage(Level.INFO, "Found Variables");
-            List<JEVisObject> dataPoints;
-            dataPoints = getDataPoints(channel);
-            logMessage(Level.INFO, "Found DataPoints");
-            for (JEVisObject dp : dataPoints) {
-                logMessage(Level.INFO, "DP: %s", dp.getName());
-            }
-            PreparedStatement ps = _con.prepareStatement(query);
+            read._config = getChannelConfig(channel);
+            queryChannel(con, read._config, getLastReadout(channel), new DateTime(getZone()), Collections.singletonList(read),
+                    false);
+            success = true;
+        } catch (SQLException sqlError) {
+            logErrorMessage(Level.SEVERE, sqlError, "Error while executing query");
+        } catch (JEVisException ex) {
+            java.util.logging.Logger.getLogger(SQLDriverAbstract.class.getName()).log(
+                    java.util.logging.Level.SEVERE, null, ex);
+        } finally {
+            read._run.finish(success);
+        }
+    }
 
-            try {
-                if (query.contains("?")) {
-                    for (JEVisObject va : variables) {
-                        try {
-                            setVariable(ps, va, channel);
-                        } catch (Exception ex) {
-                            logErrorMessage(Level.SEVERE, ex, "Error in variable:");
-                        }
-                    }
+    /**
+     * Runs the query of a channel and decodes the rows into the buffers of
+     * all channels which share the query. With a statement cache size on the
+     * SQL Server the prepared statement is taken from the cache of the
+     * connection and stays open after the query, a statement which failed is
+     * closed and prepared again next time.
+     *
+     * @param con connection used for the query
+     * @param config configuration of the channel which provides the query
+     * @param from value for 'lastreadout' and 'lastid' variables
+     * @param to value for 'windowend' variables
+     * @param reads channels with their buffers, which receive the results
+     * @param pipelined decode the rows in a separate thread
+     * @throws SQLException if the query failed
+     * @throws JEVisException
+     */
+    private void queryChannel(final Connection con, final ChannelConfig config, Watermark from, DateTime to,
+            List<ChannelRead> reads, boolean pipelined) throws SQLException, JEVisException {
+        long start = System.nanoTime();
+        final String query = config.getQuery();
+        StatementCache cache = null;
+        String key = null;
+        PreparedStatement ps;
+        if (_statementCacheSize != null && _statementCacheSize > 0) {
+            cache = StatementCache.get(con, _statementCacheSize);
+            key = StatementCache.key(query, config.getFetchSize(), config.isStreaming());
+            ps = cache.get(config.getChannelID(), key, new StatementCache.StatementFactory() {
+                @Override
+                public PreparedStatement prepare() throws SQLException {
+                    return prepareStatement(con, query, config.getFetchSize(), config.isStreaming());
                 }
+            });
+        } else {
+            ps = prepareStatement(con, query, config.getFetchSize(), config.isStreaming());
+        }
+        _deadline.register(ps);
 
-                logMessage(Level.INFO, "Query: %s", ps);
-
-                List<Target> targets = new ArrayList<>();
-                for (JEVisObject dp : dataPoints) {
+        try {
+            if (_readTimeout != null && _readTimeout > 0) {
+                ps.setQueryTimeout(_readTimeout);
+            }
+            if (query.contains("?")) {
+                for (Variable va : config.getVariables()) {
                     try {
-                        targets.add(new Target(dp));
+                        setVariable(ps, va, from, to, config.isPreciseWatermark());
                     } catch (Exception ex) {
-                        logErrorMessage(Level.SEVERE, ex, "Error while reading taget configuration: " + ex);
+                        logErrorMessage(Level.SEVERE, ex, "Error in variable:");
                     }
                 }
+            }
 
-                ResultSet rs = ps.executeQuery();
-                while (rs.next()) {
-                    for (Target target : targets) {
-                        try {
-                            Result result = parseResult(rs, target);
-                            logMessage(Level.FINE, "After Parser: %s, %s", result.getDate(), result.getValue());
-                            _result.add(result);
-                        } catch (Exception ex) {
-                            logErrorMessage(Level.FINE, ex, "Error while parsing sample");
-                        }
-                    }
-                }
+            logMessage(Level.INFO, "Query: %s", ps);
+
+            RowDecoder decoder = new RowDecoder(_zone);
+            if (config.isAggregated()) {
+                decoder.setRange(from.getTimestamp().getMillis(), to.getMillis());
+            }
+            for (ChannelRead read : reads) {
+                decoder.addTargets(read._config.getTargets(), read._buffer);
+            }
+            if (!decoder.hasTargets()) {
+                logDecoderErrors(decoder);
+                logMessage(Level.WARNING, "No valid target, skip query");
+                return;
+            }
+            addTime(reads, ChannelMetrics.Phase.PREPARE, System.nanoTime() - start);
 
-            } catch (SQLException sqlError) {
-                logErrorMessage(Level.SEVERE, sqlError, "Error while executing query");
+            start = System.nanoTime();
+            ResultSet rs = ps.executeQuery();
+            try {
+                addTime(reads, ChannelMetrics.Phase.EXECUTE, System.nanoTime() - start);
+                decoder.bind(rs.getMetaData(), config.usesKeyset() ? config.getIDColumn() : null,
+                        config.getKeyColumn());
+                logDecoderErrors(decoder);
+                if (pipelined) {
+                    decodeRowsPipelined(rs, decoder, reads);
+                } else {
+                    decodeRows(rs, decoder, reads);
+                }
             } finally {
-                if (ps != null) {
-                    ps.close();
+                rs.close();
+            }
+            for (ChannelRead read : reads) {
+                read._run.addRows(read._buffer.getRows(), read._buffer.getRejected(), read._buffer.getBytes());
+            }
+            if (decoder.getUnmatched() > 0) {
+                logMessage(Level.INFO, "%s rows without a data point for their key", decoder.getUnmatched());
+            }
+            if (decoder.getRejected() > 0) {
+                logErrorMessage(Level.FINE, decoder.getLastError(), "Last error while parsing sample");
+                logMessage(Level.WARNING, "%s values in %s rows could not be parsed",
+                        decoder.getRejected(), decoder.getRows());
+            }
+        } catch (SQLException | RuntimeException ex) {
+            if (cache != null) {
+                cache.remove(key);
+            }
+            throw ex;
+        } finally {
+            _deadline.unregister(ps);
+            if (cache == null) {
+                ps.close();
+            }
+        }
+    }
+
+    /**
+     * Stops a channel when the run timeout is reached, for drivers which do
+     * not abort a running fetch when the statement is cancelled.
+     *
+     * @throws SQLTimeoutException if the run timeout is reached
+     */
+    private void checkDeadline() throws SQLTimeoutException {
+        if (_deadline.isExpired()) {
+            throw new SQLTimeoutException("run timeout reached");
+        }
+    }
+
+    private static void addTime(List<ChannelRead> reads, ChannelMetrics.Phase phase, long nanos) {
+        for (ChannelRead read : reads) {
+            read._run.add(phase, nanos);
+        }
+    }
+
+    private static long getTime(List<ChannelRead> reads, ChannelMetrics.Phase phase) {
+        long nanos = 0;
+        for (ChannelRead read : reads) {
+            nanos += read._run.get(phase);
+        }
+        return nanos;
+    }
+
+    /**
+     * Reads all rows of the result set. Timing every row would cost as much
+     * as decoding it, so only every SAMPLED_ROWS-th row is timed and the
+     * loop time is split into fetch and parse by that ratio. Imports which
+     * run inside the loop are measured by the buffer and taken out.
+     */
+    private void decodeRows(ResultSet rs, RowDecoder decoder, List<ChannelRead> reads) throws SQLException {
+        long importBefore = getTime(reads, ChannelMetrics.Phase.IMPORT);
+        long sampledFetch = 0;
+        long sampledParse = 0;
+        long row = 0;
+        long start = System.nanoTime();
+        while (true) {
+            if ((row++ & (SAMPLED_ROWS - 1)) == 0) {
+                long t0 = System.nanoTime();
+                boolean next = rs.next();
+                long t1 = System.nanoTime();
+                sampledFetch += t1 - t0;
+                if (!next) {
+                    break;
                 }
+                decoder.decode(rs);
+                sampledParse += System.nanoTime() - t1;
+                checkDeadline();
+            } else {
+                if (!rs.next()) {
+                    break;
+                }
+                decoder.decode(rs);
             }
-        } catch (JEVisException | SQLException ex) {
-            java.util.logging.Logger.getLogger(SQLDriverAbstract.class.getName()).log(
-                    java.util.logging.Level.SEVERE, null, ex);
         }
-        return null;
+        long loop = System.nanoTime() - start - (getTime(reads, ChannelMetrics.Phase.IMPORT) - importBefore);
+        long sampled = sampledFetch + sampledParse;
+        long fetch = sampled > 0 ? (long) (loop * (sampledFetch / (double) sampled)) : loop;
+        addTime(reads, ChannelMetrics.Phase.FETCH, fetch);
+        addTime(reads, ChannelMetrics.Phase.PARSE, loop - fetch);
+    }
+
+    /**
+     * Reads all rows of the result set in this thread and decodes them in a
+     * decode stage. The rows are handed over in chunks of raw values, the
+     * ResultSet itself is only used by this thread.
+     */
+    private void decodeRowsPipelined(ResultSet rs, RowDecoder decoder, List<ChannelRead> reads)
+            throws SQLException {
+        PipelineStage.DecodeStage decode = new PipelineStage.DecodeStage(
+                "SQLDriver-decode-" + reads.get(0)._channel.getID(), _pipelineQueue, decoder);
+        decode.start();
+        boolean done = false;
+        try {
+            long start = System.nanoTime();
+            Object[][] chunk = new Object[PIPELINE_CHUNK_ROWS][];
+            int rows = 0;
+            while (rs.next()) {
+                chunk[rows++] = decoder.capture(rs);
+                if (rows == PIPELINE_CHUNK_ROWS) {
+                    checkDeadline();
+                    decode.put(chunk);
+                    chunk = new Object[PIPELINE_CHUNK_ROWS][];
+                    rows = 0;
+                }
+            }
+            if (rows > 0) {
+                decode.put(Arrays.copyOf(chunk, rows));
+            }
+            long fetch = System.nanoTime() - start - decode.getBlockedTime();
+            decode.finish();
+            done = true;
+            addTime(reads, ChannelMetrics.Phase.FETCH, fetch);
+            addTime(reads, ChannelMetrics.Phase.PARSE, decode.getBusyTime());
+        } finally {
+            if (!done) {
+                decode.abort();
+            }
+        }
+    }
+
+    /**
+     * Loads the Last Readout of a channel, the epoch if it was never set.
+     *
+     * @param channel SQL Channel object
+     * @return the Last Readout
+     * @throws JEVisException
+     */
+    private Watermark getLastReadout(JEVisObject channel) throws JEVisException {
+        _importLock.lock();
+        try {
+            String lastReadout = readLastReadoutText(channel);
+            if (_journal != null) {
+                CheckpointJournal.Checkpoint checkpoint = _journal.get(channel.getID());
+                if (checkpoint != null && checkpoint.getBase().equals(lastReadout)) {
+                    return Watermark.parse(checkpoint.getWatermark(), getZone());
+                } else if (checkpoint != null) {
+                    logMessage(Level.INFO, "Channel %s: Last Readout was changed in JEVis, drop checkpoint %s",
+                            channel.getName(), checkpoint.getWatermark());
+                    try {
+                        _journal.discard(channel.getID());
+                    } catch (IOException ex) {
+                        logErrorMessage(Level.WARNING, ex, "Error while writing checkpoint journal");
+                    }
+                }
+            }
+            return Watermark.parse(lastReadout.isEmpty() ? null : lastReadout, getZone());
+        } finally {
+            _importLock.unlock();
+        }
+    }
+
+    /**
+     * @return zone of the local timestamps in the database, in which the
+     * Last Readout and the bounds of the query are kept
+     */
+    private DateTimeZone getZone() {
+        return _zone != null ? _zone : DateTimeZone.getDefault();
+    }
+
+    /**
+     * @return the Last Readout in JEVis, an empty string if it was never set
+     */
+    private String readLastReadoutText(JEVisObject channel) throws JEVisException {
+        JEVisType last_readoutType = channel.getJEVisClass().getType(SQLChannel.LAST_READOUT);
+        String lastReadout = null;
+        if (channel.getAttribute(last_readoutType).hasSample()) {
+            lastReadout = DatabaseHelper.getObjectAsString(channel, last_readoutType);
+        }
+        return lastReadout != null ? lastReadout : "";
     }
 
     /**
@@ -401,6 +1660,9 @@ public abstract class SQLDriverAbstract implements DataSource {
      * @param args List of arguments, insert using String.formate
      */
     public void logMessage(Level level, String message, Object... args) {
+        if (!Logger.getLogger(SQLDriverAbstract.class.getName()).isLoggable(level)) {
+            return;
+        }
         String header = String.format("[ %s %s] ", _id, _name);
         String lmessage = String.format(message, args);
         try {
@@ -420,83 +1682,329 @@ public abstract class SQLDriverAbstract implements DataSource {
         }
     }
 
-    private Result parseResult(ResultSet rs, Target target) throws Exception {
-
-//        Logger.getLogger(SQLDriverAbstract.class.getName()).log(Level.FINE, "TS-type:'" + timestampType + "' TS Colum: '" + timestampColumn + "' V-colum: '" + valueColumn + "'");
-//        Logger.getLogger(SQLDriverAbstract.class.getName()).log(Level.FINE, "Value: '" + rs.getString(valueColumn) + "' TS: '" + rs.getString(timestampColumn) + "'");
-        DateTime dateTime = null;
+    /**
+     * Loads the configuration of all channels before they are run. With a
+     * config refresh interval, channels whose fingerprint did not change are
+     * taken from the snapshot of the previous runs. The targets of all other
+     * channels are resolved together in one pass.
+     *
+     * @param channels channels to read
+     */
+    private void prepareChannelConfigs(List<JEVisObject> channels) {
+        _configs = new HashMap<>();
+        TargetResolver resolver = new TargetResolver();
+        List<ChannelConfig> loaded = new ArrayList<>();
+        for (JEVisObject channel : channels) {
+            try {
+                String fingerprint = "";
+                ChannelConfig config = null;
+                if (_snapshot != null) {
+                    fingerprint = ChannelConfig.fingerprint(channel);
+                    config = _snapshot.get(channel.getID(), fingerprint);
+                }
+                if (config != null) {
+                    logMessage(Level.FINE, "Use cached configuration of channel %s", channel.getName());
+                    _configs.put(channel.getID(), config);
+                } else {
+                    loaded.add(loadChannelConfig(channel, fingerprint, resolver));
+                }
+            } catch (Exception ex) {
+                logErrorMessage(Level.SEVERE, ex, "Error while loading configuration of channel: %s", channel.getName());
+            }
+        }
+        resolveTargets(resolver);
+        for (ChannelConfig config : loaded) {
+            ChannelConfig resolved = aggregate(config.withResolvedTargets());
+            _configs.put(resolved.getChannelID(), resolved);
+            if (_snapshot != null) {
+                _snapshot.put(resolved);
+            }
+        }
+    }
 
-        if (target.getTimestampType().equalsIgnoreCase("date")) {
-            dateTime = new DateTime(rs.getDate(target.getTimestampColumn()).getTime());
-        } else if (target.getTimestampType().equalsIgnoreCase("timestamp")) {
-            dateTime = new DateTime(rs.getTimestamp(target.getTimestampColumn()).getTime());
-        } else {
-            dateTime = DateTimeFormat.forPattern(target.getTimestampType()).parseDateTime(rs.getString(target.getTimestampColumn()));
-        }
-
-        if (target.getValueType().equalsIgnoreCase("double")) {
-            Double value = rs.getDouble(target.getValueColumn());
-            Result result = new Result(target.getObjectID(), target.getAttributeName(), value, dateTime);
-            return result;
-        } else if (target.getValueType().equalsIgnoreCase("float")) {
-            Float value = rs.getFloat(target.getValueColumn());
-            Result result = new Result(target.getObjectID(), target.getAttributeName(), value, dateTime);
-            return result;
-        } else if (target.getValueType().equalsIgnoreCase("long")) {
-            Long value = rs.getLong(target.getValueColumn());
-            Result result = new Result(target.getObjectID(), target.getAttributeName(), value, dateTime);
-            return result;
-        } else if (target.getValueType().equalsIgnoreCase("int")) {
-            int value = rs.getInt(target.getValueColumn());
-            Result result = new Result(target.getObjectID(), target.getAttributeName(), value, dateTime);
-            return result;
-        } else if (target.getValueType().equalsIgnoreCase("string")) {
-            String value = rs.getString(target.getValueColumn());
-            Result result = new Result(target.getObjectID(), target.getAttributeName(), value, dateTime);
-            return result;
-        } else {
-            logError(SQLDriverErrorNotFound.ERROR_404, "unknown value type: " + target.getValueType());
-            throw new RuntimeException("Unknow value type");
+    /**
+     * Returns the configuration of a channel prepared for this run, or loads
+     * it if the channel was not prepared. The loading reads JEVis and is
+     * done under the import lock, as it may run in a channel worker.
+     *
+     * @param channel SQL Channel object
+     * @return the channel configuration
+     * @throws JEVisException
+     */
+    private ChannelConfig getChannelConfig(JEVisObject channel) throws JEVisException {
+        ChannelConfig config = _configs != null ? _configs.get(channel.getID()) : null;
+        if (config == null) {
+            _importLock.lock();
+            try {
+                TargetResolver resolver = new TargetResolver();
+                config = loadChannelConfig(channel, "", resolver);
+                resolveTargets(resolver);
+            } finally {
+                _importLock.unlock();
+            }
+            // outside of the lock, aggregate() may wait for a connection
+            config = aggregate(config.withResolvedTargets());
         }
+        return config;
     }
 
-    private void setVariable(PreparedStatement ps, JEVisObject va, JEVisObject channel) throws Exception {
-        JEVisClass channelClass = channel.getJEVisClass();
-        String col_ts_format = "yyyy-MM-dd HH:mm:ss";
+    private void resolveTargets(TargetResolver resolver) {
+        if (resolver.getObjectCount() == 0) {
+            return;
+        }
+        try {
+            logMessage(Level.INFO, "Resolve %s target objects", resolver.getObjectCount());
+            resolver.resolve(_dataSource.getDataSource());
+        } catch (Exception ex) {
+            logErrorMessage(Level.SEVERE, ex, "Error while resolving targets");
+        }
+        String summary = resolver.getSummary();
+        if (summary != null) {
+            logMessage(Level.WARNING, "%s", summary);
+        }
+    }
 
-        JEVisClass vaClass = va.getJEVisClass();
-        JEVisType artType = vaClass.getType(SQLVariable.VARIABLETYPE);
-        String art = DatabaseHelper.getObjectAsString(va, artType);
-        int pos = Math.toIntExact(va.getAttribute(SQLVariable.POSITION).getLatestSample().getValueAsLong());
-        JEVisType conditionType = vaClass.getType(SQLVariable.CONDITION);
+    /**
+     * Pushes the aggregation of the data points down to the database if they
+     * have an aggregation interval. If the channel can not be aggregated by
+     * the database the raw rows are read.
+     *
+     * @param config resolved configuration of the channel
+     * @return the configuration with the aggregated query
+     */
+    private ChannelConfig aggregate(ChannelConfig config) {
+        if (!AggregateQuery.isAggregated(config.getTargets())) {
+            return config;
+        }
+        try {
+            AggregateQuery aggregate = AggregateQuery.build(config, new AggregateQuery.Dialect() {
+                @Override
+                public String getIntervalEnd(String column, int minutes) {
+                    return getAggregationIntervalEnd(column, minutes);
+                }
+            });
+            logMessage(Level.FINE, "Aggregated query of channel %s: %s", config.getChannelID(), aggregate.getQuery());
+            return config.withAggregation(aggregate);
+        } catch (IllegalArgumentException ex) {
+            logMessage(Level.WARNING, "Channel %s reads raw rows, %s", config.getChannelID(), ex.getMessage());
+            return config;
+        }
+    }
 
-        String condition = DatabaseHelper.getObjectAsString(va, conditionType);
+    /**
+     * Returns the SQL expression for the end of the aggregation interval
+     * which contains a timestamp column. The interval contains its end but
+     * not its start. The default implementation knows MySQL/MariaDB,
+     * MSSQL, PostgreSQL and H2, other databases read the raw rows unless a
+     * subclass overrides this for their vendor. Intervals of epoch columns
+     * are computed without this method.
+     *
+     * The aggregation function 'last' also needs window functions, which
+     * MySQL only supports from version 8 and MariaDB from 10.2 on.
+     *
+     * @param column timestamp column of type date or timestamp
+     * @param minutes length of the interval
+     * @return the expression, null if timestamp columns are not aggregated
+     * by the database
+     */
+    protected String getAggregationIntervalEnd(String column, int minutes) {
+        String product;
+        try {
+            product = getDatabaseProductName();
+        } catch (ClassNotFoundException | SQLException ex) {
+            logErrorMessage(Level.WARNING, ex, "Could not determine the database product");
+            return null;
+        }
+        long seconds = minutes * 60l;
+        if (product == null) {
+            return null;
+        } else if (product.contains("MySQL") || product.contains("MariaDB")) {
+            return "FROM_UNIXTIME(CEIL(UNIX_TIMESTAMP(" + column + ") / " + seconds + ") * " + seconds + ")";
+        } else if (product.contains("Microsoft")) {
+            // DATEDIFF in seconds only overflows after 2068, the milliseconds keep rows just after an end out of it
+            return "DATEADD(SECOND, CAST(CEILING((DATEDIFF(SECOND, '2000-01-01', " + column + ") + DATEPART(MILLISECOND, "
+                    + column + ") / 1000.0) / " + seconds + ") * " + seconds + " AS INT), CAST('2000-01-01' AS DATETIME2))";
+        } else if (product.contains("PostgreSQL")) {
+            return "(TO_TIMESTAMP(CEIL(EXTRACT(EPOCH FROM " + column + ") / " + seconds + ") * " + seconds
+                    + ") AT TIME ZONE 'UTC')";
+        } else if (product.equals("H2")) {
+            return "DATEADD('SECOND', CEILING(DATEDIFF('MILLISECOND', TIMESTAMP '2000-01-01 00:00:00', " + column
+                    + ") / " + (seconds * 1000) + ".0) * " + seconds + ", TIMESTAMP '2000-01-01 00:00:00')";
+        }
+        return null;
+    }
 
-        if (condition.equalsIgnoreCase("lastreadout")) {
-            JEVisType last_readoutType = channelClass.getType(SQLChannel.LAST_READOUT);
+    /**
+     * @return the product name of the database, which is looked up once with
+     * a connection of the pool
+     * @throws ClassNotFoundException
+     * @throws SQLException
+     */
+    private String getDatabaseProductName() throws ClassNotFoundException, SQLException {
+        if (_databaseProduct == null) {
+            Connection con = borrowConnection();
+            try {
+                _databaseProduct = con.getMetaData().getDatabaseProductName();
+            } finally {
+                releaseConnection(con);
+            }
+        }
+        return _databaseProduct;
+    }
 
-            String last_readout = DatabaseHelper.getObjectAsString(channel, last_readoutType);
+    private ChannelConfig loadChannelConfig(JEVisObject channel, String fingerprint, TargetResolver resolver)
+            throws JEVisException {
+        logMessage(Level.INFO, "Load configuration of channel %s", channel.getName());
+        JEVisClass channelClass = channel.getJEVisClass();
+        JEVisType queryType = channelClass.getType(SQLChannel.QUERY);
+        String query = DatabaseHelper.getObjectAsString(channel, queryType);
+        List<JEVisObject> variableObjects = getVariables(channel);
+        logMessage(Level.INFO, "Found Variables");
+        List<Variable> variables = new ArrayList<>();
+        for (JEVisObject va : variableObjects) {
+            try {
+                variables.add(new Variable(va));
+            } catch (Exception ex) {
+                logErrorMessage(Level.SEVERE, ex, "Error in variable: %s", va.getName());
+            }
+        }
+        List<JEVisObject> dataPoints = getDataPoints(channel);
+        logMessage(Level.INFO, "Found DataPoints");
+        List<Target> targets = new ArrayList<>();
+        for (JEVisObject dp : dataPoints) {
+            logMessage(Level.INFO, "DP: %s", dp.getName());
+            try {
+                Target target = new Target(dp.getJEVisClass(), dp);
+                resolver.add(target);
+                targets.add(target);
+            } catch (Exception ex) {
+                logErrorMessage(Level.SEVERE, ex, "Error while reading taget configuration: " + ex);
+            }
+        }
+        int fetchSize = AttributeHelper.getInteger(channel, SQLChannel.FETCH_SIZE, 0);
+        boolean streaming = AttributeHelper.getBoolean(channel, SQLChannel.STREAMING, false);
+        int readWindow = AttributeHelper.getInteger(channel, SQLChannel.READ_WINDOW, 0);
+        String idColumn = AttributeHelper.getString(channel, SQLChannel.COLUMN_ID);
+        String keyColumn = AttributeHelper.getString(channel, SQLChannel.COLUMN_KEY);
+        boolean precise = AttributeHelper.getBoolean(channel, SQLChannel.PRECISE_WATERMARK, false);
+        return new ChannelConfig(channel.getID(), query, fetchSize, streaming, readWindow, idColumn, keyColumn,
+                precise, variables, targets, fingerprint);
+    }
 
-            DateTime lastReadout = null;
-            if (channel.getAttribute(last_readoutType).hasSample()) {
-                lastReadout = DatabaseHelper.getObjectAsDate(channel, last_readoutType,
-                        DateTimeFormat.forPattern("yyyy-MM-dd HH:mm:ss"));
+    /**
+     * Prepares the query of a channel as forward-only and read-only
+     * statement.
+     *
+     * @param con connection of the channel
+     * @param query query of the channel
+     * @param fetchSize fetch size hint for the driver, 0 for the default
+     * @param streaming true to let the driver stream the rows instead of
+     * buffering the whole result
+     * @return the prepared statement
+     * @throws SQLException
+     */
+    protected PreparedStatement prepareStatement(Connection con, String query, int fetchSize, boolean streaming)
+            throws SQLException {
+        PreparedStatement ps = con.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        try {
+            if (streaming) {
+                enableStreaming(con, ps, fetchSize);
+            } else if (fetchSize > 0) {
+                ps.setFetchSize(fetchSize);
             }
-            if (lastReadout == null || DatabaseHelper.getObjectAsString(channel, last_readoutType).isEmpty()) {
-                lastReadout = new DateTime(0);
+        } catch (SQLException | RuntimeException ex) {
+            ps.close();
+            throw ex;
+        }
+        return ps;
+    }
+
+    /**
+     * Switches the statement to row streaming. The default implementation
+     * knows MySQL/MariaDB, which stream only with a fetch size of
+     * Integer.MIN_VALUE, and MSSQL, which needs adaptive response buffering.
+     * Other databases get the fetch size as hint. Subclasses can override
+     * this for their vendor.
+     *
+     * @param con connection of the statement
+     * @param ps statement to configure
+     * @param fetchSize configured fetch size, 0 for the default
+     * @throws SQLException
+     */
+    protected void enableStreaming(Connection con, PreparedStatement ps, int fetchSize) throws SQLException {
+        String product = con.getMetaData().getDatabaseProductName();
+        if (fetchSize <= 0) {
+            fetchSize = DEFAULT_STREAMING_FETCH_SIZE;
+        }
+        if (product != null && (product.contains("MySQL") || product.contains("MariaDB"))) {
+            ps.setFetchSize(Integer.MIN_VALUE);
+        } else if (product != null && product.contains("Microsoft")) {
+            try {
+                ps.getClass().getMethod("setResponseBuffering", String.class).invoke(ps, "adaptive");
+            } catch (ReflectiveOperationException ex) {
+                logMessage(Level.FINE, "Response buffering not supported by %s", ps.getClass().getName());
             }
-            last_readout = lastReadout.toString(DateTimeFormat.forPattern(col_ts_format));
-            condition = condition.replaceAll(condition, last_readout);
+            ps.setFetchSize(fetchSize);
+        } else {
+            ps.setFetchSize(fetchSize);
+        }
+    }
+
+    private void logDecoderErrors(RowDecoder decoder) {
+        for (String error : decoder.getErrors()) {
+            logError(SQLDriverErrorBadRequest.ERROR_4007, error);
+        }
+        decoder.getErrors().clear();
+    }
+
+    private void setVariable(PreparedStatement ps, Variable va, Watermark from, DateTime to, boolean precise)
+            throws Exception {
+        String col_ts_format = precise ? "yyyy-MM-dd HH:mm:ss.SSS" : "yyyy-MM-dd HH:mm:ss";
 
-            setVariableInStatement(ps, art, pos, condition, channel);
+        String art = va.getVariableType();
+        int pos = va.getPosition();
+        String condition = va.getCondition();
+
+        DateTime value;
+        if (condition.equalsIgnoreCase(CONDITION_LAST_READOUT)) {
+            value = from.getTimestamp();
+        } else if (condition.equalsIgnoreCase(CONDITION_WINDOW_END)) {
+            value = to;
+        } else if (condition.equalsIgnoreCase(CONDITION_LAST_ID)) {
+            if (from.getID() == null) {
+                ps.setNull(pos, getSQLType(art));
+            } else {
+                setVariableInStatement(ps, art, pos, from.getID(), null);
+            }
+            return;
         } else {
             //.... where are the other?!
+            return;
+        }
+        if (!precise) {
+            value = value.withMillisOfSecond(0);
+        }
+        if (art.equalsIgnoreCase("timestamp")) {
+            ps.setTimestamp(pos, new Timestamp(value.getMillis()),
+                    Calendar.getInstance(TimeZone.getTimeZone(value.getZone().getID())));
+            return;
         }
+        condition = value.toString(DateTimeFormat.forPattern(col_ts_format));
+        setVariableInStatement(ps, art, pos, condition, null);
+    }
 
-        //this if for?
-//        if (!va.getAttribute(SQLVariable.CONDITION).hasSample()) {
-//            condition = last_readout;
-//        }
+    private int getSQLType(String art) {
+        if (art.equalsIgnoreCase("double")) {
+            return Types.DOUBLE;
+        } else if (art.equalsIgnoreCase("float")) {
+            return Types.REAL;
+        } else if (art.equalsIgnoreCase("long")) {
+            return Types.BIGINT;
+        } else if (art.equalsIgnoreCase("int")) {
+            return Types.INTEGER;
+        } else {
+            return Types.VARCHAR;
+        }
     }
 
     /**
@@ -511,31 +2019,31 @@ public abstract class SQLDriverAbstract implements DataSource {
      * @param channel
      * @throws Exception
      */
-    private void setVariableInStatement(PreparedStatement ps, String art, int pos, String condition, JEVisObject channel) throws Exception {
+    void setVariableInStatement(PreparedStatement ps, String art, int pos, String condition, JEVisObject channel) throws Exception {
         if (art.equalsIgnoreCase("double")) {
-            System.out.println("---> Set variable in type: " + art + "; Position: " + pos + "; Condition: " + Double.parseDouble(condition));
+            logMessage(Level.FINE, "Set variable in type: %s; Position: %s; Condition: %s", art, pos, Double.parseDouble(condition));
             ps.setDouble(pos, Double.parseDouble(condition));
         } else if (art.equalsIgnoreCase("float")) {
-            System.out.println("---> Set variable in type: " + art + "; Position: " + pos + "; Condition: " + Float.parseFloat(condition));
+            logMessage(Level.FINE, "Set variable in type: %s; Position: %s; Condition: %s", art, pos, Float.parseFloat(condition));
             ps.setFloat(pos, Float.parseFloat(condition));
         } else if (art.equalsIgnoreCase("long")) {
-            System.out.println("---> Set variable in type: " + art + "; Position: " + pos + "; Condition: " + Long.parseLong(condition));
+            logMessage(Level.FINE, "Set variable in type: %s; Position: %s; Condition: %s", art, pos, Long.parseLong(condition));
             ps.setLong(pos, Long.parseLong(condition));
         } else if (art.equalsIgnoreCase("int")) {
-            System.out.println("---> Set variable in type: " + art + "; Position: " + pos + "; Condition: " + Integer.parseInt(condition));
+            logMessage(Level.FINE, "Set variable in type: %s; Position: %s; Condition: %s", art, pos, Integer.parseInt(condition));
             ps.setInt(pos, Integer.parseInt(condition));
         } else if (art.equalsIgnoreCase("date")) {
-            System.out.println("---> Set variable in type: " + art + "; Position: " + pos + "; Condition: " + Date.valueOf(condition));
+            logMessage(Level.FINE, "Set variable in type: %s; Position: %s; Condition: %s", art, pos, Date.valueOf(condition));
             ps.setDate(pos, Date.valueOf(condition));
         } else if (art.equalsIgnoreCase("time")) {
-            System.out.println("---> Set variable in type: " + art + "; Position: " + pos + "; Condition: " + Time.valueOf(condition));
+            logMessage(Level.FINE, "Set variable in type: %s; Position: %s; Condition: %s", art, pos, Time.valueOf(condition));
             ps.setTime(pos, Time.valueOf(condition));
         } else if (art.equalsIgnoreCase("timestamp")) {
-            System.out.println("---> Set variable in type: " + art + "; Position: " + pos + "; Condition: " + condition);
+            logMessage(Level.FINE, "Set variable in type: %s; Position: %s; Condition: %s", art, pos, condition);
             DateTimeFormatter dbDateTime = DateTimeFormat.forPattern("yyyy-MM-dd HH:mm:ss");
             ps.setTimestamp(pos, new Timestamp(dbDateTime.parseMillis(condition)));
         } else if (art.equalsIgnoreCase("string")) {
-            System.out.println("---> Set variable in type: " + art + "Position: " + pos + "  " + condition);
+            logMessage(Level.FINE, "Set variable in type: %s; Position: %s; Condition: %s", art, pos, condition);
             ps.setString(pos, condition);
         } else {
             logError(SQLDriverErrorNotFound.ERROR_404, "unknown varibale type: " + art);
@@ -0,0 +1,189 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource;
+
+import java.util.Arrays;
+import java.util.List;
+import org.jevis.commons.driver.Result;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * Samples of one target in primitive arrays: the timestamps as epoch
+ * milliseconds and the values as double, long or, for strings, as object.
+ * The Results for the importer are only created when the column is drained,
+ * a buffered sample takes 16 bytes instead of a Result with a boxed value and
+ * a DateTime. The arrays are kept after a drain and reused for the next
+ * batch.
+ */
+final class SampleColumn {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final long _onlineID;
+    private final String _attribute;
+    private final RowDecoder.ValueType _type;
+    private final DateTimeZone _zone;
+    private long[] _times = new long[INITIAL_CAPACITY];
+    private double[] _numbers;
+    private long[] _integers;
+    private Object[] _values;
+    private int _size = 0;
+
+    /**
+     * @param onlineID ID of the target object
+     * @param attribute name of the target attribute
+     * @param type type of the values, FLOAT and INT are kept as double and
+     * long and boxed to their own type again
+     * @param zone zone of the timestamps of the Results
+     */
+    SampleColumn(long onlineID, String attribute, RowDecoder.ValueType type, DateTimeZone zone) {
+        _onlineID = onlineID;
+        _attribute = attribute;
+        _type = type;
+        _zone = zone;
+        switch (type) {
+            case DOUBLE:
+            case FLOAT:
+                _numbers = new double[INITIAL_CAPACITY];
+                break;
+            case LONG:
+            case INT:
+                _integers = new long[INITIAL_CAPACITY];
+                break;
+            default:
+                _values = new Object[INITIAL_CAPACITY];
+        }
+    }
+
+    /**
+     * Returns the type under which a value of the old Result based interface
+     * is kept, other types than the numbers of the 'Value Type' attribute are
+     * kept as object.
+     */
+    static RowDecoder.ValueType typeOf(Object value) {
+        if (value instanceof Double) {
+            return RowDecoder.ValueType.DOUBLE;
+        } else if (value instanceof Float) {
+            return RowDecoder.ValueType.FLOAT;
+        } else if (value instanceof Long) {
+            return RowDecoder.ValueType.LONG;
+        } else if (value instanceof Integer) {
+            return RowDecoder.ValueType.INT;
+        }
+        return RowDecoder.ValueType.STRING;
+    }
+
+    boolean matches(long onlineID, String attribute, RowDecoder.ValueType type, DateTimeZone zone) {
+        return _onlineID == onlineID && _type == type && _attribute.equals(attribute) && _zone.equals(zone);
+    }
+
+    long getOnlineID() {
+        return _onlineID;
+    }
+
+    String getAttribute() {
+        return _attribute;
+    }
+
+    DateTimeZone getZone() {
+        return _zone;
+    }
+
+    /**
+     * @return number of buffered samples
+     */
+    int size() {
+        return _size;
+    }
+
+    void add(long timestamp, double value) {
+        grow();
+        _times[_size] = timestamp;
+        _numbers[_size++] = value;
+    }
+
+    void add(long timestamp, long value) {
+        grow();
+        _times[_size] = timestamp;
+        _integers[_size++] = value;
+    }
+
+    /**
+     * Adds a boxed value, numbers are unboxed into the array of the type.
+     */
+    void add(long timestamp, Object value) {
+        if (_numbers != null) {
+            add(timestamp, ((Number) value).doubleValue());
+        } else if (_integers != null) {
+            add(timestamp, ((Number) value).longValue());
+        } else {
+            grow();
+            _times[_size] = timestamp;
+            _values[_size++] = value;
+        }
+    }
+
+    /**
+     * Creates the Results of all buffered samples and empties the column.
+     *
+     * @param results receives the Results in the order the samples were added
+     */
+    void drainTo(List<Result> results) {
+        for (int i = 0; i < _size; i++) {
+            results.add(new Result(_onlineID, _attribute, getValue(i), new DateTime(_times[i], _zone)));
+        }
+        if (_values != null) {
+            Arrays.fill(_values, 0, _size, null);
+        }
+        _size = 0;
+    }
+
+    private Object getValue(int index) {
+        switch (_type) {
+            case DOUBLE:
+                return _numbers[index];
+            case FLOAT:
+                return (float) _numbers[index];
+            case LONG:
+                return _integers[index];
+            case INT:
+                return (int) _integers[index];
+            default:
+                return _values[index];
+        }
+    }
+
+    private void grow() {
+        if (_size < _times.length) {
+            return;
+        }
+        int capacity = _times.length * 2;
+        _times = Arrays.copyOf(_times, capacity);
+        if (_numbers != null) {
+            _numbers = Arrays.copyOf(_numbers, capacity);
+        } else if (_integers != null) {
+            _integers = Arrays.copyOf(_integers, capacity);
+        } else {
+            _values = Arrays.copyOf(_values, capacity);
+        }
+    }
+}
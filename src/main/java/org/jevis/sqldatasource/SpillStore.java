@@ -0,0 +1,511 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import org.jevis.commons.driver.Result;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * Local append-only store for result batches which could not be imported
+ * into JEVis. The batches are written to segment files in a directory and
+ * read back in the order they were written.
+ *
+ * A batch is one block 'length, CRC32, payload'. The payload stores the
+ * samples of one target after another, target ID, attribute and zone once
+ * per target, followed by timestamp and value of its samples. Every value
+ * has a tag of its type, so it is replayed with the type it was spilled
+ * with. Every block is forced to the disk before append() returns. A block
+ * which was torn by a crash is cut off when the store is opened.
+ *
+ * The drain position is kept in a small file next to the segments, segments
+ * which were read completely are deleted.
+ */
+final class SpillStore {
+
+    static final long SEGMENT_SIZE = 16L * 1024 * 1024;
+    private static final Logger LOG = Logger.getLogger(SpillStore.class.getName());
+    private static final Map<Long, SpillStore> STORES = new ConcurrentHashMap<>();
+    private static final ReentrantLock LOCK = new ReentrantLock();
+    private static final String PREFIX = "spill-";
+    private static final String SUFFIX = ".bin";
+    private static final String POSITION = "drain.pos";
+    private static final int MAX_BLOCK = 256 * 1024 * 1024;
+    private static final byte NULL = 'N';
+    private static final byte DOUBLE = 'D';
+    private static final byte FLOAT = 'F';
+    private static final byte LONG = 'L';
+    private static final byte INTEGER = 'I';
+    private static final byte SHORT = 'H';
+    private static final byte BYTE = 'B';
+    private static final byte BOOLEAN = 'Z';
+    private static final byte STRING = 'S';
+
+    private final File _dir;
+    private final ReentrantLock _lock = new ReentrantLock();
+    private final List<Long> _segments = new ArrayList<>();
+    private long _readOffset = 0;
+    private long _peekEnd = -1;
+    private FileChannel _out;
+    private long _pending = 0;
+
+    private SpillStore(File dir) {
+        _dir = dir;
+    }
+
+    /**
+     * Returns the spill store of a data source. On the first call in the JVM
+     * the segments of the directory are checked, so batches spilled by a
+     * collector which stopped are imported again.
+     *
+     * @param dataSourceID ID of the SQL Server object
+     * @param dir directory of the segment files, created if it does not exist
+     * @return the store
+     * @throws IOException if the directory can not be read
+     */
+    static SpillStore open(long dataSourceID, File dir) throws IOException {
+        LOCK.lock();
+        try {
+            SpillStore store = STORES.get(dataSourceID);
+            if (store != null && store._dir.equals(dir)) {
+                return store;
+            }
+            if (store != null) {
+                store.close();
+            }
+            store = new SpillStore(dir);
+            store.load();
+            STORES.put(dataSourceID, store);
+            return store;
+        } finally {
+            LOCK.unlock();
+        }
+    }
+
+    /**
+     * Closes the store of a data source which no longer spills. The files are
+     * kept and imported when the store is opened again.
+     *
+     * @param dataSourceID ID of the SQL Server object
+     */
+    static void close(long dataSourceID) {
+        LOCK.lock();
+        try {
+            SpillStore store = STORES.remove(dataSourceID);
+            if (store != null) {
+                store.close();
+            }
+        } finally {
+            LOCK.unlock();
+        }
+    }
+
+    /**
+     * @return true if there are batches which were not read back
+     */
+    boolean hasPending() {
+        _lock.lock();
+        try {
+            return _pending > 0;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * @return bytes of the batches which were not read back
+     */
+    long getPendingBytes() {
+        _lock.lock();
+        try {
+            return _pending;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Appends a batch and forces it to the disk.
+     *
+     * @param results the batch
+     * @throws IOException if the batch could not be written
+     */
+    void append(List<Result> results) throws IOException {
+        _lock.lock();
+        try {
+            byte[] payload = encode(results);
+            ByteBuffer block = ByteBuffer.allocate(8 + payload.length);
+            block.putInt(payload.length).putInt(checksum(payload, payload.length)).put(payload);
+            block.flip();
+            if (_out == null || _out.size() >= SEGMENT_SIZE) {
+                long seq = _segments.isEmpty() ? 0 : _segments.get(_segments.size() - 1) + 1;
+                openSegment(seq);
+            }
+            while (block.hasRemaining()) {
+                _out.write(block);
+            }
+            _out.force(false);
+            _pending += 8 + payload.length;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the oldest batch which was not read back. The same batch is
+     * returned until advance() is called.
+     *
+     * @return the batch, null if the store is empty
+     * @throws IOException if the segment can not be read
+     */
+    List<Result> peek() throws IOException {
+        _lock.lock();
+        try {
+            while (!_segments.isEmpty()) {
+                File file = segment(_segments.get(0));
+                try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+                    if (_readOffset < in.length()) {
+                        in.seek(_readOffset);
+                        byte[] payload = readBlock(in);
+                        if (payload != null) {
+                            _peekEnd = in.getFilePointer();
+                            return decode(payload);
+                        }
+                        LOG.log(Level.WARNING, "Drop corrupt spill data in {0} after offset {1}",
+                                new Object[]{file, _readOffset});
+                        _pending -= in.length() - _readOffset;
+                        _readOffset = in.length();
+                    }
+                }
+                if (_segments.size() == 1) {
+                    return null;
+                }
+                dropSegment();
+            }
+            return null;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Moves the drain position behind the batch returned by peek().
+     *
+     * @throws IOException if the position could not be saved
+     */
+    void advance() throws IOException {
+        _lock.lock();
+        try {
+            if (_peekEnd < 0) {
+                return;
+            }
+            _pending -= _peekEnd - _readOffset;
+            _readOffset = _peekEnd;
+            _peekEnd = -1;
+            if (_pending == 0) {
+                while (_segments.size() > 1) {
+                    dropSegment();
+                }
+                if (_out != null) {
+                    _out.truncate(0);
+                    _out.force(true);
+                }
+                _readOffset = 0;
+            }
+            savePosition();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private void load() throws IOException {
+        if (!_dir.isDirectory()) {
+            Files.createDirectories(_dir.toPath());
+        }
+        String[] names = _dir.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }
+        });
+        for (String name : names != null ? names : new String[0]) {
+            try {
+                _segments.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+            } catch (NumberFormatException ex) {
+                LOG.log(Level.WARNING, "Ignore unknown file {0} in {1}", new Object[]{name, _dir});
+            }
+        }
+        Collections.sort(_segments);
+        loadPosition();
+        if (_segments.isEmpty()) {
+            return;
+        }
+        long last = _segments.get(_segments.size() - 1);
+        File file = segment(last);
+        long valid = _segments.size() == 1 ? _readOffset : 0;
+        try (RandomAccessFile in = new RandomAccessFile(file, "rw")) {
+            in.seek(valid);
+            while (in.getFilePointer() < in.length() && readBlock(in) != null) {
+                valid = in.getFilePointer();
+            }
+            if (valid < in.length()) {
+                LOG.log(Level.WARNING, "Cut off incomplete spill data of {0} at offset {1}", new Object[]{file, valid});
+                in.setLength(valid);
+            }
+        }
+        for (long seq : _segments) {
+            _pending += segment(seq).length();
+        }
+        _pending -= _readOffset;
+        openSegment(last);
+    }
+
+    private void loadPosition() throws IOException {
+        File file = new File(_dir, POSITION);
+        if (!file.exists() || _segments.isEmpty()) {
+            return;
+        }
+        String[] position = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim().split(" ");
+        try {
+            long seq = Long.parseLong(position[0]);
+            long offset = Long.parseLong(position[1]);
+            while (!_segments.isEmpty() && _segments.get(0) < seq) {
+                Files.deleteIfExists(segment(_segments.remove(0)).toPath());
+            }
+            if (!_segments.isEmpty() && _segments.get(0) == seq) {
+                _readOffset = Math.min(offset, segment(seq).length());
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+            LOG.log(Level.WARNING, "Invalid drain position in {0}, read all segments", file);
+        }
+    }
+
+    private void savePosition() throws IOException {
+        File file = new File(_dir, POSITION);
+        File tmp = new File(_dir, POSITION + ".tmp");
+        String position = (_segments.isEmpty() ? 0 : _segments.get(0)) + " " + _readOffset;
+        Files.write(tmp.toPath(), position.getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void openSegment(long seq) throws IOException {
+        if (_out != null) {
+            _out.close();
+        }
+        if (_segments.isEmpty() || _segments.get(_segments.size() - 1) != seq) {
+            _segments.add(seq);
+        }
+        _out = FileChannel.open(segment(seq).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    private void dropSegment() throws IOException {
+        Files.deleteIfExists(segment(_segments.remove(0)).toPath());
+        _readOffset = 0;
+        savePosition();
+    }
+
+    private File segment(long seq) {
+        return new File(_dir, String.format("%s%019d%s", PREFIX, seq, SUFFIX));
+    }
+
+    private void close() {
+        try {
+            if (_out != null) {
+                _out.close();
+            }
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "Error while closing spill store " + _dir, ex);
+        }
+    }
+
+    /**
+     * @return the payload of the block at the position of the file, null if
+     * the block is incomplete or corrupt
+     */
+    private static byte[] readBlock(RandomAccessFile in) throws IOException {
+        if (in.length() - in.getFilePointer() < 8) {
+            return null;
+        }
+        int length = in.readInt();
+        int crc = in.readInt();
+        if (length < 0 || length > MAX_BLOCK || in.length() - in.getFilePointer() < length) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return checksum(payload, length) == crc ? payload : null;
+    }
+
+    private static int checksum(byte[] payload, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, length);
+        return (int) crc.getValue();
+    }
+
+    static byte[] encode(List<Result> results) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + results.size() * 17);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(results.size());
+        int i = 0;
+        while (i < results.size()) {
+            Result first = results.get(i);
+            DateTimeZone zone = first.getDate().getZone();
+            int end = i + 1;
+            while (end < results.size() && sameTarget(first, results.get(end))) {
+                end++;
+            }
+            out.writeLong(first.getOnlineID());
+            writeString(out, first.getAttribute());
+            out.writeUTF(zone.getID());
+            out.writeInt(end - i);
+            for (; i < end; i++) {
+                Result result = results.get(i);
+                out.writeLong(result.getDate().getMillis());
+                writeValue(out, result.getValue());
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static List<Result> decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        int size = in.readInt();
+        List<Result> results = new ArrayList<>(size);
+        while (results.size() < size) {
+            long onlineID = in.readLong();
+            String attribute = readString(in);
+            DateTimeZone zone = DateTimeZone.forID(in.readUTF());
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long timestamp = in.readLong();
+                results.add(new Result(onlineID, attribute, readValue(in), new DateTime(timestamp, zone)));
+            }
+        }
+        return results;
+    }
+
+    private static boolean sameTarget(Result a, Result b) {
+        return a.getOnlineID() == b.getOnlineID()
+                && (a.getAttribute() == null ? b.getAttribute() == null : a.getAttribute().equals(b.getAttribute()))
+                && a.getDate().getZone().equals(b.getDate().getZone());
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else {
+            out.writeByte(STRING);
+            writeString(out, value.toString());
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case DOUBLE:
+                return in.readDouble();
+            case FLOAT:
+                return in.readFloat();
+            case LONG:
+                return in.readLong();
+            case INTEGER:
+                return in.readInt();
+            case SHORT:
+                return in.readShort();
+            case BYTE:
+                return in.readByte();
+            case BOOLEAN:
+                return in.readBoolean();
+            case STRING:
+                return readString(in);
+            default:
+                throw new IOException("Unknown value type " + type);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        if (text == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
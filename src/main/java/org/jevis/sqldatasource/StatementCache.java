@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Prepared statements of one connection, kept open between runs so the
+ * database does not parse and plan the channel queries again in every run.
+ * The SQLConnectionPool calls release() before it closes a connection, which
+ * closes the statements and drops the cache. The statements refer to their
+ * connection, so the cache would keep a closed connection reachable
+ * otherwise.
+ *
+ * Statements are identified by the query text and the statement settings.
+ * If the query of a channel changes, the statement of the old query is
+ * closed unless another channel still uses it. Beyond the maximum size the
+ * least recently used statement is closed.
+ *
+ * A connection is only used by one thread at a time, so the cache of a
+ * connection is not synchronized.
+ */
+final class StatementCache {
+
+    private static final Logger LOG = Logger.getLogger(StatementCache.class.getName());
+    private static final Map<Connection, StatementCache> CACHES = new IdentityHashMap<>();
+
+    /**
+     * Prepares a statement which is not in the cache.
+     */
+    interface StatementFactory {
+
+        PreparedStatement prepare() throws SQLException;
+    }
+
+    private final Map<String, PreparedStatement> _statements = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Long, String> _channels = new HashMap<>();
+    private int _maxSize;
+
+    private StatementCache() {
+    }
+
+    /**
+     * Returns the cache of a connection and creates it if needed.
+     *
+     * @param con the connection
+     * @param maxSize maximum number of open statements on the connection
+     * @return the cache
+     */
+    static StatementCache get(Connection con, int maxSize) {
+        StatementCache cache;
+        synchronized (CACHES) {
+            cache = CACHES.get(con);
+            if (cache == null) {
+                cache = new StatementCache();
+                CACHES.put(con, cache);
+            }
+        }
+        cache._maxSize = Math.max(1, maxSize);
+        return cache;
+    }
+
+    /**
+     * Closes the statements of a connection and drops its cache, called
+     * before the connection is closed.
+     *
+     * @param con the connection
+     */
+    static void release(Connection con) {
+        StatementCache cache;
+        synchronized (CACHES) {
+            cache = CACHES.remove(con);
+        }
+        if (cache != null) {
+            for (PreparedStatement ps : cache._statements.values()) {
+                close(ps);
+            }
+            cache._statements.clear();
+            cache._channels.clear();
+        }
+    }
+
+    /**
+     * @param query query text
+     * @param fetchSize fetch size of the statement
+     * @param streaming streaming mode of the statement
+     * @return the key of a statement with these settings
+     */
+    static String key(String query, int fetchSize, boolean streaming) {
+        return fetchSize + ";" + streaming + ";" + query;
+    }
+
+    /**
+     * Returns the cached statement with its parameters cleared, or prepares
+     * and caches a new one.
+     *
+     * @param channelID channel which runs the statement
+     * @param key key of the statement
+     * @param factory prepares the statement if it is not cached
+     * @return the statement, which must not be closed by the caller
+     * @throws SQLException
+     */
+    PreparedStatement get(long channelID, String key, StatementFactory factory) throws SQLException {
+        String previous = _channels.put(channelID, key);
+        if (previous != null && !previous.equals(key) && !_channels.containsValue(previous)) {
+            remove(previous);
+        }
+        PreparedStatement ps = _statements.get(key);
+        if (ps != null) {
+            if (!ps.isClosed()) {
+                ps.clearParameters();
+                return ps;
+            }
+            _statements.remove(key);
+        }
+        ps = factory.prepare();
+        _statements.put(key, ps);
+        Iterator<PreparedStatement> eldest = _statements.values().iterator();
+        while (_statements.size() > _maxSize) {
+            close(eldest.next());
+            eldest.remove();
+        }
+        return ps;
+    }
+
+    /**
+     * Closes and drops a statement, e.g. after it failed.
+     *
+     * @param key key of the statement
+     */
+    void remove(String key) {
+        PreparedStatement ps = _statements.remove(key);
+        if (ps != null) {
+            close(ps);
+        }
+    }
+
+    private static void close(PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (SQLException ex) {
+            LOG.log(Level.FINE, "Error while closing cached statement", ex);
+        }
+    }
+}
@@ -5,6 +5,7 @@
  */
 package org.jevis.sqldatasource;
 
+import java.util.Locale;
 import org.jevis.api.JEVisAttribute;
 import org.jevis.api.JEVisClass;
 import org.jevis.api.JEVisObject;
@@ -20,13 +21,16 @@ import org.jevis.commons.DatabaseHelper;
  */
 public class Target {
 
-    private final JEVisAttribute targetAtt;
+    private JEVisAttribute targetAtt;
     private final String targetAttribute;
     private final long targetID;
     private final String timestampColumn;
     private final String valueColumn;
     private final String timestampType;
     private final String valueType;
+    private final String key;
+    private final int aggregationInterval;
+    private final String aggregationFunction;
 
     /**
      *
@@ -36,7 +40,20 @@ public class Target {
      * @throws Exception
      */
     public Target(JEVisObject datapoint) throws Exception {
-        JEVisClass dpClass = datapoint.getJEVisClass();
+        this(datapoint.getJEVisClass(), datapoint);
+        targetAtt = datapoint.getDataSource().getObject(targetID).getAttribute(targetAttribute);
+    }
+
+    /**
+     * Reads the configuration without resolving the target attribute. The
+     * attribute is set later by the TargetResolver, which resolves all
+     * targets of a data source in one pass.
+     *
+     * @param dpClass class of the data point
+     * @param datapoint
+     * @throws Exception
+     */
+    Target(JEVisClass dpClass, JEVisObject datapoint) throws Exception {
         targetID = datapoint.getAttribute(SQLDriverAbstract.SQLDataPoint.TARGET).getLatestSample().getValueAsLong();
         JEVisType targetAttributeType = dpClass.getType(SQLDriverAbstract.SQLDataPoint.TARGETATTRIBUTE);
         targetAttribute = DatabaseHelper.getObjectAsString(datapoint, targetAttributeType);
@@ -48,7 +65,39 @@ public class Target {
         timestampType = DatabaseHelper.getObjectAsString(datapoint, timestampTypeType);
         JEVisType valueTypeType = dpClass.getType(SQLDriverAbstract.SQLDataPoint.VALUETYPE);
         valueType = DatabaseHelper.getObjectAsString(datapoint, valueTypeType);
-        targetAtt = datapoint.getDataSource().getObject(targetID).getAttribute(targetAttribute);
+        String id = AttributeHelper.getString(datapoint, SQLDriverAbstract.SQLDataPoint.KEY);
+        key = id != null && !id.trim().isEmpty() ? id.trim() : null;
+        aggregationInterval = AttributeHelper.getInteger(datapoint, SQLDriverAbstract.SQLDataPoint.AGGREGATION_INTERVAL,
+                0);
+        String function = AttributeHelper.getString(datapoint, SQLDriverAbstract.SQLDataPoint.AGGREGATION_FUNCTION);
+        aggregationFunction = function != null && !function.trim().isEmpty()
+                ? function.trim().toLowerCase(Locale.ENGLISH) : null;
+    }
+
+    /**
+     * Copy of a target which reads its samples from other columns, used for
+     * the result of an aggregated query.
+     *
+     * @param source the target
+     * @param timestampColumn column of the timestamp
+     * @param valueColumn column of the value
+     * @param valueType type of the value column
+     */
+    Target(Target source, String timestampColumn, String valueColumn, String valueType) {
+        this.targetAtt = source.targetAtt;
+        this.targetAttribute = source.targetAttribute;
+        this.targetID = source.targetID;
+        this.timestampColumn = timestampColumn;
+        this.valueColumn = valueColumn;
+        this.timestampType = source.timestampType;
+        this.valueType = valueType;
+        this.key = source.key;
+        this.aggregationInterval = 0;
+        this.aggregationFunction = null;
+    }
+
+    void setAttribute(JEVisAttribute attribute) {
+        targetAtt = attribute;
     }
 
     public JEVisAttribute getAttribute() {
@@ -79,4 +128,27 @@ public class Target {
         return valueType;
     }
 
+    /**
+     * @return value of the key column for the rows of this target, null if
+     * the target reads every row
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return length of the intervals the values are aggregated to by the
+     * database in minutes, 0 to read the raw rows
+     */
+    public int getAggregationInterval() {
+        return aggregationInterval;
+    }
+
+    /**
+     * @return avg, sum, min, max or last, null if not set
+     */
+    public String getAggregationFunction() {
+        return aggregationFunction;
+    }
+
 }
@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.jevis.api.JEVisAttribute;
+import org.jevis.api.JEVisDataSource;
+import org.jevis.api.JEVisObject;
+
+/**
+ * Resolves the target attributes of many targets at once. All targets of a
+ * data source are collected first, then every target object is fetched only
+ * once and every attribute is looked up only once, no matter how many data
+ * points write into it.
+ *
+ * The objects are fetched by ID. The JEVis API has no call which fetches a
+ * list of IDs, and listing the classes of the targets would load every
+ * object of these classes, which can be far more than the targets.
+ */
+class TargetResolver {
+
+    private final Map<Long, List<Target>> _targets = new LinkedHashMap<>();
+    private final List<String> _unresolved = new ArrayList<>();
+    private int _count = 0;
+
+    void add(Target target) {
+        List<Target> targets = _targets.get(target.getObjectID());
+        if (targets == null) {
+            targets = new ArrayList<>();
+            _targets.put(target.getObjectID(), targets);
+        }
+        targets.add(target);
+        _count++;
+    }
+
+    /**
+     * Resolves the attributes of all added targets. Targets which could not be
+     * resolved keep a null attribute and are listed in getSummary().
+     *
+     * @param dataSource JEVis data source
+     */
+    void resolve(JEVisDataSource dataSource) {
+        for (Map.Entry<Long, List<Target>> entry : _targets.entrySet()) {
+            JEVisObject object;
+            try {
+                object = dataSource.getObject(entry.getKey());
+            } catch (Exception ex) {
+                object = null;
+            }
+            if (object == null) {
+                for (Target target : entry.getValue()) {
+                    _unresolved.add(target.getObjectID() + ":" + target.getAttributeName() + " (object not found)");
+                }
+                continue;
+            }
+
+            Map<String, JEVisAttribute> attributes = new HashMap<>();
+            for (Target target : entry.getValue()) {
+                JEVisAttribute attribute;
+                if (attributes.containsKey(target.getAttributeName())) {
+                    attribute = attributes.get(target.getAttributeName());
+                } else {
+                    try {
+                        attribute = object.getAttribute(target.getAttributeName());
+                    } catch (Exception ex) {
+                        attribute = null;
+                    }
+                    attributes.put(target.getAttributeName(), attribute);
+                }
+                if (attribute == null) {
+                    _unresolved.add(target.getObjectID() + ":" + target.getAttributeName() + " (attribute not found)");
+                } else {
+                    target.setAttribute(attribute);
+                }
+            }
+        }
+        _targets.clear();
+    }
+
+    /**
+     * @return number of objects which will be fetched by resolve()
+     */
+    int getObjectCount() {
+        return _targets.size();
+    }
+
+    /**
+     * @return null if all targets were resolved, else one line listing the
+     * targets which could not be resolved
+     */
+    String getSummary() {
+        if (_unresolved.isEmpty()) {
+            return null;
+        }
+        StringBuilder summary = new StringBuilder();
+        summary.append("Could not resolve ").append(_unresolved.size()).append(" of ").append(_count).append(" targets: ");
+        for (int i = 0; i < _unresolved.size(); i++) {
+            if (i > 0) {
+                summary.append(", ");
+            }
+            summary.append(_unresolved.get(i));
+        }
+        return summary.toString();
+    }
+}
@@ -0,0 +1,351 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource;
+
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import org.joda.time.Chronology;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.chrono.ISOChronology;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+/**
+ * Decodes the timestamp column of a row for one 'Timestamp Type'. Supported
+ * types are:
+ * <ul>
+ * <li>date, timestamp: JDBC date and timestamp columns</li>
+ * <li>epoch, epoch millis: seconds or milliseconds since 1970 in a numeric
+ * column</li>
+ * <li>iso: ISO-8601 strings, with or without offset</li>
+ * <li>any other value is used as Joda pattern for string columns</li>
+ * </ul>
+ * Local timestamps of the database are interpreted in the time zone of the
+ * SQL Server object. Formatters are cached per pattern and zone, the common
+ * pattern yyyy-MM-dd HH:mm:ss is parsed without a formatter.
+ */
+abstract class TimestampDecoder {
+
+    static final String DATE = "date";
+    static final String TIMESTAMP = "timestamp";
+    static final String EPOCH = "epoch";
+    static final String EPOCH_MILLIS = "epoch millis";
+    static final String ISO = "iso";
+    static final String DEFAULT_PATTERN = "yyyy-MM-dd HH:mm:ss";
+
+    private static final Map<String, DateTimeFormatter> FORMATTERS = new ConcurrentHashMap<>();
+
+    protected final DateTimeZone _zone;
+
+    private TimestampDecoder(DateTimeZone zone) {
+        _zone = zone;
+    }
+
+    /**
+     * @param type value of the 'Timestamp Type' attribute
+     * @param zone zone of the local timestamps in the database, null for the
+     * default zone of the JVM
+     * @return a decoder for the type
+     * @throws IllegalArgumentException if the type is no valid pattern
+     */
+    static TimestampDecoder create(String type, DateTimeZone zone) {
+        if (type == null || type.trim().isEmpty()) {
+            throw new IllegalArgumentException("missing timestamp type");
+        }
+        if (zone == null) {
+            zone = DateTimeZone.getDefault();
+        }
+        String name = type.trim();
+        if (name.equalsIgnoreCase(DATE)) {
+            return new JDBCDateDecoder(zone);
+        } else if (name.equalsIgnoreCase(TIMESTAMP)) {
+            return new JDBCTimestampDecoder(zone);
+        } else if (name.equalsIgnoreCase(EPOCH) || name.equalsIgnoreCase("epoch seconds")) {
+            return new EpochDecoder(zone, 1000);
+        } else if (name.equalsIgnoreCase(EPOCH_MILLIS) || name.equalsIgnoreCase("epochmillis")) {
+            return new EpochDecoder(zone, 1);
+        } else if (name.equalsIgnoreCase(ISO) || name.equalsIgnoreCase("iso8601")) {
+            return new FormatterDecoder(zone, getFormatter(ISO, zone));
+        } else if (type.equals(DEFAULT_PATTERN)) {
+            return new DefaultPatternDecoder(zone, getFormatter(type, zone));
+        } else {
+            return new FormatterDecoder(zone, getFormatter(type, zone));
+        }
+    }
+
+    /**
+     * Parses a zone id of the 'Timezone' attribute.
+     *
+     * @param id zone id like 'Europe/Berlin' or 'UTC', may be null
+     * @return the zone, null if the id is empty
+     * @throws IllegalArgumentException if the id is unknown
+     */
+    static DateTimeZone parseZone(String id) {
+        if (id == null || id.trim().isEmpty()) {
+            return null;
+        }
+        return DateTimeZone.forID(id.trim());
+    }
+
+    private static DateTimeFormatter getFormatter(String pattern, DateTimeZone zone) {
+        String key = pattern + '|' + zone.getID();
+        DateTimeFormatter formatter = FORMATTERS.get(key);
+        if (formatter == null) {
+            if (pattern.equals(ISO)) {
+                formatter = ISODateTimeFormat.dateTimeParser().withZone(zone);
+            } else {
+                formatter = DateTimeFormat.forPattern(pattern).withZone(zone);
+            }
+            FORMATTERS.put(key, formatter);
+        }
+        return formatter;
+    }
+
+    /**
+     * Reads the timestamp of the current row.
+     *
+     * @param rs result set positioned on a row
+     * @param column index of the timestamp column
+     * @return the timestamp
+     * @throws SQLException
+     */
+    DateTime read(ResultSet rs, int column) throws SQLException {
+        return new DateTime(readMillis(rs, column), _zone);
+    }
+
+    /**
+     * Reads the timestamp of the current row without creating a DateTime.
+     *
+     * @param rs result set positioned on a row
+     * @param column index of the timestamp column
+     * @return the timestamp in milliseconds since 1970
+     * @throws SQLException
+     */
+    abstract long readMillis(ResultSet rs, int column) throws SQLException;
+
+    /**
+     * Reads the raw value of the timestamp column, which is decoded later by
+     * decode(). Used when reading and decoding run in different threads.
+     *
+     * @param rs result set positioned on a row
+     * @param column index of the timestamp column
+     * @return the raw value, null if the column is null
+     * @throws SQLException
+     */
+    abstract Object capture(ResultSet rs, int column) throws SQLException;
+
+    /**
+     * Decodes a value which was already read from the result set.
+     *
+     * @param value value of the timestamp column
+     * @return the timestamp
+     */
+    DateTime decode(Object value) {
+        return new DateTime(decodeMillis(value), _zone);
+    }
+
+    /**
+     * Decodes a value which was already read from the result set without
+     * creating a DateTime.
+     *
+     * @param value value of the timestamp column
+     * @return the timestamp in milliseconds since 1970
+     */
+    abstract long decodeMillis(Object value);
+
+    /**
+     * @return the zone of the decoded timestamps
+     */
+    DateTimeZone getZone() {
+        return _zone;
+    }
+
+    private static long missing() {
+        throw new IllegalArgumentException("timestamp is null");
+    }
+
+    private static class JDBCDateDecoder extends TimestampDecoder {
+
+        private final Calendar _calendar;
+
+        JDBCDateDecoder(DateTimeZone zone) {
+            super(zone);
+            _calendar = Calendar.getInstance(TimeZone.getTimeZone(zone.getID()));
+        }
+
+        @Override
+        long readMillis(ResultSet rs, int column) throws SQLException {
+            Date date = rs.getDate(column, _calendar);
+            return date != null ? date.getTime() : missing();
+        }
+
+        @Override
+        Object capture(ResultSet rs, int column) throws SQLException {
+            return rs.getDate(column, _calendar);
+        }
+
+        @Override
+        long decodeMillis(Object value) {
+            return value != null ? ((java.util.Date) value).getTime() : missing();
+        }
+    }
+
+    private static class JDBCTimestampDecoder extends TimestampDecoder {
+
+        private final Calendar _calendar;
+
+        JDBCTimestampDecoder(DateTimeZone zone) {
+            super(zone);
+            _calendar = Calendar.getInstance(TimeZone.getTimeZone(zone.getID()));
+        }
+
+        @Override
+        long readMillis(ResultSet rs, int column) throws SQLException {
+            Timestamp timestamp = rs.getTimestamp(column, _calendar);
+            return timestamp != null ? timestamp.getTime() : missing();
+        }
+
+        @Override
+        Object capture(ResultSet rs, int column) throws SQLException {
+            return rs.getTimestamp(column, _calendar);
+        }
+
+        @Override
+        long decodeMillis(Object value) {
+            return value != null ? ((java.util.Date) value).getTime() : missing();
+        }
+    }
+
+    private static class EpochDecoder extends TimestampDecoder {
+
+        private final long _factor;
+
+        EpochDecoder(DateTimeZone zone, long factor) {
+            super(zone);
+            _factor = factor;
+        }
+
+        @Override
+        long readMillis(ResultSet rs, int column) throws SQLException {
+            long epoch = rs.getLong(column);
+            return rs.wasNull() ? missing() : epoch * _factor;
+        }
+
+        @Override
+        Object capture(ResultSet rs, int column) throws SQLException {
+            long epoch = rs.getLong(column);
+            return rs.wasNull() ? null : epoch;
+        }
+
+        @Override
+        long decodeMillis(Object value) {
+            if (value == null) {
+                return missing();
+            }
+            long epoch = value instanceof Number
+                    ? ((Number) value).longValue()
+                    : Long.parseLong(value.toString().trim());
+            return epoch * _factor;
+        }
+    }
+
+    private static class FormatterDecoder extends TimestampDecoder {
+
+        protected final DateTimeFormatter _formatter;
+
+        FormatterDecoder(DateTimeZone zone, DateTimeFormatter formatter) {
+            super(zone);
+            _formatter = formatter;
+        }
+
+        @Override
+        long readMillis(ResultSet rs, int column) throws SQLException {
+            return decodeMillis(rs.getString(column));
+        }
+
+        @Override
+        Object capture(ResultSet rs, int column) throws SQLException {
+            return rs.getString(column);
+        }
+
+        @Override
+        long decodeMillis(Object value) {
+            return value != null ? _formatter.parseMillis(value.toString()) : missing();
+        }
+    }
+
+    /**
+     * Parses yyyy-MM-dd HH:mm:ss directly from the characters and falls back
+     * to the formatter for anything else.
+     */
+    private static class DefaultPatternDecoder extends FormatterDecoder {
+
+        private final Chronology _chronology;
+
+        DefaultPatternDecoder(DateTimeZone zone, DateTimeFormatter formatter) {
+            super(zone, formatter);
+            _chronology = ISOChronology.getInstance(zone);
+        }
+
+        @Override
+        long decodeMillis(Object value) {
+            if (value == null) {
+                return missing();
+            }
+            String text = value.toString();
+            if (text.length() != 19
+                    || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != ' '
+                    || text.charAt(13) != ':' || text.charAt(16) != ':') {
+                return super.decodeMillis(text);
+            }
+            int year = digits(text, 0, 4);
+            int month = digits(text, 5, 7);
+            int day = digits(text, 8, 10);
+            int hour = digits(text, 11, 13);
+            int minute = digits(text, 14, 16);
+            int second = digits(text, 17, 19);
+            if ((year | month | day | hour | minute | second) < 0) {
+                return super.decodeMillis(text);
+            }
+            return _chronology.getDateTimeMillis(year, month, day, hour, minute, second, 0);
+        }
+
+        private static int digits(String text, int start, int end) {
+            int value = 0;
+            for (int i = start; i < end; i++) {
+                int digit = text.charAt(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    return -1;
+                }
+                value = value * 10 + digit;
+            }
+            return value;
+        }
+    }
+}
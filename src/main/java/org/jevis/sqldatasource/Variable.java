@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource;
+
+import org.jevis.api.JEVisClass;
+import org.jevis.api.JEVisObject;
+import org.jevis.api.JEVisType;
+import org.jevis.commons.DatabaseHelper;
+
+/**
+ * Parse the configuration of a SQL Variable object
+ */
+public class Variable {
+
+    private final long id;
+    private final String name;
+    private final String variableType;
+    private final int position;
+    private final String condition;
+
+    /**
+     * @param variable SQL Variable object
+     * @throws Exception if the configuration could not be read
+     */
+    public Variable(JEVisObject variable) throws Exception {
+        id = variable.getID();
+        name = variable.getName();
+        JEVisClass vaClass = variable.getJEVisClass();
+        JEVisType artType = vaClass.getType(SQLDriverAbstract.SQLVariable.VARIABLETYPE);
+        variableType = DatabaseHelper.getObjectAsString(variable, artType);
+        position = Math.toIntExact(variable.getAttribute(SQLDriverAbstract.SQLVariable.POSITION).getLatestSample().getValueAsLong());
+        JEVisType conditionType = vaClass.getType(SQLDriverAbstract.SQLVariable.CONDITION);
+        condition = DatabaseHelper.getObjectAsString(variable, conditionType);
+    }
+
+    public long getID() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getVariableType() {
+        return variableType;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public String getCondition() {
+        return condition;
+    }
+}
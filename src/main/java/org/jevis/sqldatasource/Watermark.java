@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.DateTimeFormatterBuilder;
+
+/**
+ * Position up to which a channel was read, stored in the Last Readout. The
+ * timestamp is kept in seconds like before or in milliseconds for channels
+ * with a precise watermark. For channels with an ID column the ID of the
+ * newest row is added, so rows sharing the newest timestamp can be told
+ * apart: 'yyyy-MM-dd HH:mm:ss.SSS#id'. The value is local time of the
+ * 'Timezone' of the SQL Server, it is parsed and formatted in that zone, so
+ * it does not move if the JVM runs in another zone.
+ */
+class Watermark implements Comparable<Watermark> {
+
+    private static final String SECONDS_PATTERN = "yyyy-MM-dd HH:mm:ss";
+    private static final String MILLIS_PATTERN = "yyyy-MM-dd HH:mm:ss.SSS";
+    private static final char ID_SEPARATOR = '#';
+    private static final DateTimeFormatter PARSER = new DateTimeFormatterBuilder()
+            .appendPattern(SECONDS_PATTERN)
+            .appendOptional(new DateTimeFormatterBuilder()
+                    .appendLiteral('.')
+                    .appendFractionOfSecond(1, 9)
+                    .toParser())
+            .toFormatter();
+
+    private final DateTime _timestamp;
+    private final String _id;
+
+    Watermark(DateTime timestamp, String id) {
+        _timestamp = timestamp;
+        _id = id;
+    }
+
+    /**
+     * Parses a Last Readout value. Values with seconds, with fractions of a
+     * second and with an ID are accepted.
+     *
+     * @param value Last Readout value, may be null or empty
+     * @param zone zone of the SQL Server
+     * @return the watermark, the epoch if the value is empty
+     * @throws IllegalArgumentException if the value can not be parsed
+     */
+    static Watermark parse(String value, DateTimeZone zone) {
+        if (value == null || value.trim().isEmpty()) {
+            return new Watermark(new DateTime(0, zone), null);
+        }
+        String text = value.trim();
+        String id = null;
+        int separator = text.indexOf(ID_SEPARATOR);
+        if (separator >= 0) {
+            id = text.substring(separator + 1);
+            text = text.substring(0, separator);
+        }
+        return new Watermark(PARSER.withZone(zone).parseDateTime(text), id);
+    }
+
+    /**
+     * @param precise true to keep milliseconds, false for seconds like the
+     * Last Readout of older versions
+     * @param zone zone of the SQL Server
+     * @return the value for the Last Readout attribute
+     */
+    String format(boolean precise, DateTimeZone zone) {
+        String text = DateTimeFormat.forPattern(precise ? MILLIS_PATTERN : SECONDS_PATTERN)
+                .print(_timestamp.withZone(zone));
+        if (_id != null) {
+            text = text + ID_SEPARATOR + _id;
+        }
+        return text;
+    }
+
+    DateTime getTimestamp() {
+        return _timestamp;
+    }
+
+    /**
+     * @return ID of the newest row, null if unknown
+     */
+    String getID() {
+        return _id;
+    }
+
+    /**
+     * Orders by timestamp and then by ID. IDs are compared as numbers if both
+     * are numeric, a missing ID is older than any ID.
+     */
+    @Override
+    public int compareTo(Watermark other) {
+        int result = _timestamp.compareTo(other._timestamp);
+        if (result != 0) {
+            return result;
+        }
+        if (_id == null || other._id == null) {
+            return _id == null ? (other._id == null ? 0 : -1) : 1;
+        }
+        try {
+            return Long.compare(Long.parseLong(_id), Long.parseLong(other._id));
+        } catch (NumberFormatException ex) {
+            return _id.compareTo(other._id);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return format(true, _timestamp.getZone());
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2013 - 2016 Envidatec GmbH <info@envidatec.com>
+ *
+ * This file is part of SQLDriverAbstract.
+ *
+ * SQLDriverAbstract is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation in version 3.
+ *
+ * SQLDriverAbstract is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * SQLDriverAbstract. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SQLDriverAbstract is part of the OpenJEVis project, further project
+ * information are published at <http://www.OpenJEVis.org/>.
+ */
+package org.jevis.sqldatasource;
+
+import static org.junit.Assert.assertEquals;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The Last Readout has to survive a write and a reload unchanged when the
+ * 'Timezone' of the SQL Server is not the zone of the JVM.
+ */
+public class WatermarkTest {
+
+    private static final DateTimeZone SERVER = DateTimeZone.forID("Europe/Berlin");
+    private static final DateTimeZone JVM = DateTimeZone.forID("America/New_York");
+
+    private DateTimeZone _default;
+
+    @Before
+    public void setUp() {
+        _default = DateTimeZone.getDefault();
+        DateTimeZone.setDefault(JVM);
+    }
+
+    @After
+    public void tearDown() {
+        DateTimeZone.setDefault(_default);
+    }
+
+    @Test
+    public void roundTripKeepsTheInstant() {
+        Watermark written = new Watermark(new DateTime(2016, 3, 1, 12, 0, 0, 250, SERVER), "7");
+        String text = written.format(true, SERVER);
+        assertEquals("2016-03-01 12:00:00.250#7", text);
+
+        Watermark read = Watermark.parse(text, SERVER);
+        assertEquals(written.getTimestamp().getMillis(), read.getTimestamp().getMillis());
+        assertEquals("7", read.getID());
+        assertEquals(text, read.format(true, SERVER));
+        assertEquals(0, written.compareTo(read));
+    }
+
+    @Test
+    public void formatUsesTheServerZone() {
+        DateTime utc = new DateTime(2016, 7, 1, 10, 0, 0, 0, DateTimeZone.UTC);
+        assertEquals("2016-07-01 12:00:00", new Watermark(utc, null).format(false, SERVER));
+        assertEquals(utc.getMillis(),
+                Watermark.parse("2016-07-01 12:00:00", SERVER).getTimestamp().getMillis());
+    }
+
+    @Test
+    public void emptyValueIsTheEpoch() {
+        assertEquals(0, Watermark.parse(" ", SERVER).getTimestamp().getMillis());
+    }
+}